@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the construction of the fabric8 {@link Config} of a user, as done by {@link
+ * Fabric8WorkspaceEnvironmentProvider}, from scratch and from a template.
+ *
+ * <p>A config created from scratch is auto-configured from system properties, environment variables
+ * and kubeconfig files, so the figures of {@link #fromScratch()} depend on the environment the
+ * benchmark runs in.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ConfigConstructionBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigConstructionBenchmark {
+
+  private static final String PROXY_URL = "https://proxy.openshift.io";
+  private static final String NAMESPACE = "user-che";
+  private static final String TOKEN = "token";
+
+  private Config template;
+
+  @Setup
+  public void setUp() {
+    template = new ConfigBuilder().withTrustCerts(true).withMasterUrl(PROXY_URL).build();
+  }
+
+  /** A new auto-configured builder per config, as before the template was introduced. */
+  @Benchmark
+  public Config fromScratch() {
+    return new ConfigBuilder()
+        .withNamespace(NAMESPACE)
+        .withTrustCerts(true)
+        .withMasterUrl(PROXY_URL)
+        .withOauthToken(TOKEN)
+        .build();
+  }
+
+  /** A copy of a template built once. */
+  @Benchmark
+  public Config fromTemplate() {
+    return new ConfigBuilder(template).withNamespace(NAMESPACE).withOauthToken(TOKEN).build();
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.redhat.che.multitenant.benchmark.Fixtures;
+import com.redhat.che.multitenant.benchmark.StubServiceAccountTokenToggle;
+import com.redhat.che.multitenant.multicluster.ClusterHealthTracker;
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.multicluster.MultiClusterOpenShiftProxy;
+import com.redhat.che.multitenant.tenantdata.StubTenantData;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.jsonwebtoken.Jwts;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.server.model.impl.RuntimeIdentityImpl;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.api.workspace.server.spi.RuntimeContext;
+import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.dto.server.DtoFactory;
+import org.eclipse.che.workspace.infrastructure.kubernetes.cache.KubernetesRuntimeStateCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link Fabric8OpenShiftClientFactory#buildConfig(Config, String)}, which is called for
+ * every OpenShift client created by Che, with the tenant data of the users already cached.
+ *
+ * <p>The auth and toggle services are stubbed, and the workspace runtimes are Mockito mocks, so the
+ * figures cover the subject resolution, the tenant data lookup and the config construction only.
+ * With a {@code configCacheSize} of 0, every call builds a new config.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar Fabric8OpenShiftClientFactoryBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Fabric8OpenShiftClientFactoryBenchmark {
+
+  private static final String OWN_WORKSPACE = "ownWorkspace";
+  private static final String OTHER_USER_WORKSPACE = "otherUserWorkspace";
+
+  @Param({"false", "true"})
+  public boolean serviceAccountToken;
+
+  /** Maximum number of built configs cached by the factory. */
+  @Param({"0", "1000"})
+  public long configCacheSize;
+
+  /** Number of running workspaces known by the subjects registry. */
+  @Param({"1000"})
+  public int runningWorkspaces;
+
+  private Fabric8OpenShiftClientFactory clientFactory;
+  private Config defaultConfig;
+
+  @Setup
+  public void setUp() throws InfrastructureException {
+    Subject currentUser = new SubjectImpl("user", "userId", "token", false);
+    Subject otherUser = new SubjectImpl("other", "otherId", "otherToken", false);
+
+    WorkspaceRuntimes workspaceRuntimes = mock(WorkspaceRuntimes.class);
+    WorkspaceSubjectsRegistry subjectsRegistry =
+        new WorkspaceSubjectsRegistry(() -> workspaceRuntimes, Jwts.parser(), Integer.MAX_VALUE, 0);
+    for (int i = 0; i < runningWorkspaces - 1; i++) {
+      start(subjectsRegistry, new SubjectImpl("name" + i, "id" + i, "token" + i, false), "ws" + i);
+    }
+    start(subjectsRegistry, otherUser, OTHER_USER_WORKSPACE);
+
+    mockRuntime(workspaceRuntimes, OWN_WORKSPACE, currentUser);
+    mockRuntime(workspaceRuntimes, OTHER_USER_WORKSPACE, otherUser);
+
+    StubTenantData tenantData =
+        new StubTenantData(Fixtures.load("user-services-response.json"), 1000);
+    StubServiceAccountTokenToggle toggle = new StubServiceAccountTokenToggle(serviceAccountToken);
+    DirectClusterRouting directClusterRouting = new DirectClusterRouting(false, 60);
+    Fabric8WorkspaceEnvironmentProvider envProvider =
+        new Fabric8WorkspaceEnvironmentProvider(
+            true,
+            new MultiClusterOpenShiftProxy("https://proxy.openshift.io"),
+            toggle,
+            tenantData.getTenantDataProvider(),
+            tenantData.getClusterCapacityIndex(),
+            new CheServiceAccountTokenProvider(null, null, null, new OkHttpClient(), 60, 300, 30),
+            directClusterRouting,
+            mock(OpenshiftUserTokenProvider.class),
+            false);
+    clientFactory =
+        new Fabric8OpenShiftClientFactory(
+            envProvider,
+            () -> workspaceRuntimes,
+            subjectsRegistry,
+            mock(KubernetesRuntimeStateCache.class),
+            toggle,
+            directClusterRouting,
+            new ClusterHealthTracker(directClusterRouting, 60, false, 0.5, 20, 300),
+            false,
+            64,
+            5,
+            5,
+            5,
+            EventListener.NONE,
+            configCacheSize,
+            60);
+    defaultConfig = new ConfigBuilder().build();
+
+    EnvironmentContext.getCurrent().setSubject(currentUser);
+    // loads the tenant data of both users
+    clientFactory.buildConfig(defaultConfig, OWN_WORKSPACE);
+    clientFactory.buildConfig(defaultConfig, OTHER_USER_WORKSPACE);
+  }
+
+  @TearDown
+  public void tearDown() {
+    EnvironmentContext.reset();
+  }
+
+  @Benchmark
+  public Config currentUser() throws InfrastructureException {
+    return clientFactory.buildConfig(defaultConfig, null);
+  }
+
+  @Benchmark
+  public Config ownWorkspace() throws InfrastructureException {
+    return clientFactory.buildConfig(defaultConfig, OWN_WORKSPACE);
+  }
+
+  /** The owner of the workspace is looked up in the subjects registry. */
+  @Benchmark
+  public Config otherUserWorkspace() throws InfrastructureException {
+    return clientFactory.buildConfig(defaultConfig, OTHER_USER_WORKSPACE);
+  }
+
+  private static void start(
+      WorkspaceSubjectsRegistry subjectsRegistry, Subject subject, String workspaceId) {
+    EnvironmentContext.getCurrent().setSubject(subject);
+    try {
+      subjectsRegistry.onEvent(
+          DtoFactory.newDto(WorkspaceStatusEvent.class)
+              .withWorkspaceId(workspaceId)
+              .withStatus(WorkspaceStatus.STARTING));
+    } finally {
+      EnvironmentContext.reset();
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void mockRuntime(
+      WorkspaceRuntimes workspaceRuntimes, String workspaceId, Subject owner) {
+    RuntimeContext context = mock(RuntimeContext.class);
+    when(context.getIdentity())
+        .thenReturn(new RuntimeIdentityImpl(workspaceId, "default", owner.getUserId(), "ns"));
+    when(workspaceRuntimes.getRuntimeContext(workspaceId)).thenReturn(Optional.of(context));
+  }
+}
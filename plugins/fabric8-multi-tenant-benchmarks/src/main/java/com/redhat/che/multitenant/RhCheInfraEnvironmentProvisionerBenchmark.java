@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.redhat.che.multitenant.benchmark.Fixtures;
+import com.redhat.che.multitenant.benchmark.StubAuthServiceInterceptor;
+import com.redhat.che.multitenant.tenantdata.StubTenantData;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.openshift.api.model.Route;
+import io.fabric8.openshift.api.model.RouteBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.workspace.server.model.impl.RuntimeIdentityImpl;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.workspace.infrastructure.kubernetes.namespace.pvc.WorkspaceVolumesStrategy;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.AsyncStoragePodInterceptor;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.AsyncStorageProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.CertificateProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.DeploymentMetadataProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.GatewayRouterProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.GitConfigProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.ImagePullSecretProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.LogsVolumeMachineProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.NodeSelectorProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.PodTerminationGracePeriodProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.ProxySettingsProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.ServiceAccountProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.SshKeysProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.TlsProvisionerProvider;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.TolerationsProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.VcsSslCertificateProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.env.EnvVarsConverter;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.limits.ram.ContainerResourceProvisioner;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.restartpolicy.RestartPolicyRewriter;
+import org.eclipse.che.workspace.infrastructure.kubernetes.provision.server.ServersConverter;
+import org.eclipse.che.workspace.infrastructure.openshift.OpenShiftEnvironmentProvisioner;
+import org.eclipse.che.workspace.infrastructure.openshift.environment.OpenShiftEnvironment;
+import org.eclipse.che.workspace.infrastructure.openshift.provision.OpenShiftUniqueNamesProvisioner;
+import org.eclipse.che.workspace.infrastructure.openshift.provision.OpenshiftTrustedCAProvisioner;
+import org.eclipse.che.workspace.infrastructure.openshift.provision.RouteTlsProvisioner;
+import org.eclipse.che.workspace.infrastructure.openshift.server.OpenShiftPreviewUrlExposer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link RhCheInfraEnvironmentProvisioner#provision} on environments with many pods and
+ * containers, with the OpenShift token and the tenant data of the user already cached.
+ *
+ * <p>The upstream provisioners are Mockito mocks that do nothing. Since each mock invocation has a
+ * cost of its own, {@link #upstreamBaseline()} measures the same provisioning without this
+ * provisioner: the difference is the cost of the injection of the {@code oc login} env vars and of
+ * the route annotations. The same environment is provisioned on each invocation: the injected env
+ * vars replace the ones of the previous invocation, so the environment keeps its size.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar RhCheInfraEnvironmentProvisionerBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RhCheInfraEnvironmentProvisionerBenchmark {
+
+  @Param({"1", "20", "100"})
+  public int pods;
+
+  @Param({"5"})
+  public int containersPerPod;
+
+  /** Env vars defined in each container before the provisioning. */
+  @Param({"20"})
+  public int envVarsPerContainer;
+
+  private RhCheInfraEnvironmentProvisioner provisioner;
+  private OpenShiftEnvironmentProvisioner upstreamProvisioner;
+  private OpenShiftEnvironment osEnv;
+  private RuntimeIdentityImpl identity;
+
+  @Setup
+  public void setUp() throws InfrastructureException {
+    @SuppressWarnings("unchecked")
+    TlsProvisionerProvider<OpenShiftEnvironment> tlsProvisionerProvider =
+        mock(TlsProvisionerProvider.class);
+    when(tlsProvisionerProvider.get()).thenReturn(mock(RouteTlsProvisioner.class));
+    @SuppressWarnings("unchecked")
+    ServersConverter<OpenShiftEnvironment> serversConverter = mock(ServersConverter.class);
+
+    OpenshiftUserTokenProvider tokenProvider =
+        new OpenshiftUserTokenProvider(
+            "https://auth.openshift.io/api",
+            null,
+            null,
+            StubAuthServiceInterceptor.client("osoToken"),
+            false,
+            500,
+            10,
+            300);
+    StubTenantData tenantData =
+        new StubTenantData(Fixtures.load("user-services-response.json"), 1000);
+
+    OpenShiftUniqueNamesProvisioner uniqueNamesProvisioner =
+        mock(OpenShiftUniqueNamesProvisioner.class);
+    EnvVarsConverter envVarsConverter = mock(EnvVarsConverter.class);
+    RestartPolicyRewriter restartPolicyRewriter = mock(RestartPolicyRewriter.class);
+    WorkspaceVolumesStrategy volumesStrategy = mock(WorkspaceVolumesStrategy.class);
+    ContainerResourceProvisioner resourceProvisioner = mock(ContainerResourceProvisioner.class);
+    LogsVolumeMachineProvisioner logsVolumeProvisioner = mock(LogsVolumeMachineProvisioner.class);
+    PodTerminationGracePeriodProvisioner gracePeriodProvisioner =
+        mock(PodTerminationGracePeriodProvisioner.class);
+    ImagePullSecretProvisioner imagePullSecretProvisioner = mock(ImagePullSecretProvisioner.class);
+    ProxySettingsProvisioner proxySettingsProvisioner = mock(ProxySettingsProvisioner.class);
+    NodeSelectorProvisioner nodeSelectorProvisioner = mock(NodeSelectorProvisioner.class);
+    TolerationsProvisioner tolerationsProvisioner = mock(TolerationsProvisioner.class);
+    AsyncStorageProvisioner asyncStorageProvisioner = mock(AsyncStorageProvisioner.class);
+    AsyncStoragePodInterceptor asyncStoragePodInterceptor = mock(AsyncStoragePodInterceptor.class);
+    ServiceAccountProvisioner serviceAccountProvisioner = mock(ServiceAccountProvisioner.class);
+    CertificateProvisioner certificateProvisioner = mock(CertificateProvisioner.class);
+    SshKeysProvisioner sshKeysProvisioner = mock(SshKeysProvisioner.class);
+    GitConfigProvisioner gitConfigProvisioner = mock(GitConfigProvisioner.class);
+    OpenShiftPreviewUrlExposer previewUrlExposer = mock(OpenShiftPreviewUrlExposer.class);
+    VcsSslCertificateProvisioner vcsSslCertificateProvisioner =
+        mock(VcsSslCertificateProvisioner.class);
+    GatewayRouterProvisioner gatewayRouterProvisioner = mock(GatewayRouterProvisioner.class);
+    DeploymentMetadataProvisioner deploymentMetadataProvisioner =
+        mock(DeploymentMetadataProvisioner.class);
+    OpenshiftTrustedCAProvisioner trustedCAProvisioner = mock(OpenshiftTrustedCAProvisioner.class);
+
+    provisioner =
+        new RhCheInfraEnvironmentProvisioner(
+            true,
+            uniqueNamesProvisioner,
+            tlsProvisionerProvider,
+            serversConverter,
+            envVarsConverter,
+            restartPolicyRewriter,
+            volumesStrategy,
+            resourceProvisioner,
+            logsVolumeProvisioner,
+            tokenProvider,
+            tenantData.getTenantDataProvider(),
+            gracePeriodProvisioner,
+            imagePullSecretProvisioner,
+            proxySettingsProvisioner,
+            nodeSelectorProvisioner,
+            tolerationsProvisioner,
+            asyncStorageProvisioner,
+            asyncStoragePodInterceptor,
+            serviceAccountProvisioner,
+            certificateProvisioner,
+            sshKeysProvisioner,
+            gitConfigProvisioner,
+            previewUrlExposer,
+            vcsSslCertificateProvisioner,
+            gatewayRouterProvisioner,
+            deploymentMetadataProvisioner,
+            trustedCAProvisioner,
+            false,
+            "10m",
+            30);
+    upstreamProvisioner =
+        new OpenShiftEnvironmentProvisioner(
+            true,
+            uniqueNamesProvisioner,
+            tlsProvisionerProvider,
+            serversConverter,
+            envVarsConverter,
+            restartPolicyRewriter,
+            volumesStrategy,
+            resourceProvisioner,
+            logsVolumeProvisioner,
+            gracePeriodProvisioner,
+            imagePullSecretProvisioner,
+            proxySettingsProvisioner,
+            nodeSelectorProvisioner,
+            tolerationsProvisioner,
+            asyncStorageProvisioner,
+            asyncStoragePodInterceptor,
+            serviceAccountProvisioner,
+            certificateProvisioner,
+            sshKeysProvisioner,
+            gitConfigProvisioner,
+            previewUrlExposer,
+            vcsSslCertificateProvisioner,
+            gatewayRouterProvisioner,
+            deploymentMetadataProvisioner,
+            trustedCAProvisioner);
+
+    osEnv = OpenShiftEnvironment.builder().setPods(createPods()).setRoutes(createRoutes()).build();
+    identity = new RuntimeIdentityImpl("workspace", "default", "userId", "ns");
+
+    EnvironmentContext.getCurrent()
+        .setSubject(new SubjectImpl("user", "userId", "keycloakToken", false));
+    // caches the token and the tenant data of the user
+    provisioner.provision(osEnv, identity);
+  }
+
+  @TearDown
+  public void tearDown() {
+    EnvironmentContext.reset();
+  }
+
+  @Benchmark
+  public OpenShiftEnvironment provision() throws InfrastructureException {
+    provisioner.provision(osEnv, identity);
+    return osEnv;
+  }
+
+  /** Provisioning made by the same mocks without this provisioner, to subtract from the above. */
+  @Benchmark
+  public OpenShiftEnvironment upstreamBaseline() throws InfrastructureException {
+    upstreamProvisioner.provision(osEnv, identity);
+    return osEnv;
+  }
+
+  private Map<String, Pod> createPods() {
+    Map<String, Pod> podsByName = new HashMap<>();
+    for (int pod = 0; pod < pods; pod++) {
+      List<Container> containers = new ArrayList<>();
+      for (int container = 0; container < containersPerPod; container++) {
+        List<EnvVar> env = new ArrayList<>();
+        for (int var = 0; var < envVarsPerContainer; var++) {
+          env.add(new EnvVar("VAR_" + var, "value" + var, null));
+        }
+        containers.add(
+            new ContainerBuilder().withName("container" + container).withEnv(env).build());
+      }
+      String name = "pod" + pod;
+      podsByName.put(
+          name,
+          new PodBuilder()
+              .withNewMetadata()
+              .withName(name)
+              .endMetadata()
+              .withNewSpec()
+              .withContainers(containers)
+              .endSpec()
+              .build());
+    }
+    return podsByName;
+  }
+
+  private Map<String, Route> createRoutes() {
+    Map<String, Route> routesByName = new HashMap<>();
+    for (int pod = 0; pod < pods; pod++) {
+      Map<String, String> annotations = new HashMap<>();
+      annotations.put("org.eclipse.che.server.wsagent/http.path", "/api");
+      String name = "route" + pod;
+      routesByName.put(
+          name,
+          new RouteBuilder()
+              .withNewMetadata()
+              .withName(name)
+              .withAnnotations(annotations)
+              .endMetadata()
+              .build());
+    }
+    return routesByName;
+  }
+}
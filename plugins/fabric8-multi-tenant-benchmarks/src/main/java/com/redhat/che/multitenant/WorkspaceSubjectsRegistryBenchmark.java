@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.Mockito.mock;
+
+import io.jsonwebtoken.Jwts;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.dto.server.DtoFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link WorkspaceSubjectsRegistry#getSubject(String)} with many running workspaces.
+ *
+ * <p>The registry is filled through {@link WorkspaceStatus#STARTING} events, as on a Che server,
+ * with {@code workspacesPerUser} workspaces started by each user.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar WorkspaceSubjectsRegistryBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkspaceSubjectsRegistryBenchmark {
+
+  @Param({"100", "10000"})
+  public int workspaces;
+
+  @Param({"1", "5"})
+  public int workspacesPerUser;
+
+  private WorkspaceSubjectsRegistry registry;
+  private String[] userIds;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    // registered workspaces are never swept during the benchmark
+    registry =
+        new WorkspaceSubjectsRegistry(
+            () -> mock(WorkspaceRuntimes.class), Jwts.parser(), Integer.MAX_VALUE, 0);
+    userIds = new String[workspaces / workspacesPerUser];
+    for (int user = 0; user < userIds.length; user++) {
+      userIds[user] = "user" + user;
+      Subject subject = new SubjectImpl("name" + user, userIds[user], "token" + user, false);
+      for (int ws = 0; ws < workspacesPerUser; ws++) {
+        start(subject, "workspace" + user + '-' + ws);
+      }
+    }
+  }
+
+  private void start(Subject subject, String workspaceId) {
+    EnvironmentContext.getCurrent().setSubject(subject);
+    try {
+      registry.onEvent(
+          DtoFactory.newDto(WorkspaceStatusEvent.class)
+              .withWorkspaceId(workspaceId)
+              .withStatus(WorkspaceStatus.STARTING));
+    } finally {
+      EnvironmentContext.reset();
+    }
+  }
+
+  /** Looks up the users in turn, as the idling and the client factory do. */
+  @Benchmark
+  public Subject getSubject() throws NotFoundException {
+    String userId = userIds[next];
+    next = next + 1 == userIds.length ? 0 : next + 1;
+    return registry.getSubject(userId);
+  }
+
+  /** Looks up a user who has no running workspace, e.g. after a Che server restart. */
+  @Benchmark
+  public Object getUnknownSubject() {
+    try {
+      return registry.getSubject("unknown");
+    } catch (NotFoundException e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.benchmark;
+
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Stands in for the token endpoint of the fabric8 auth service in benchmarks: every call made with
+ * the client returned by {@link #client()} gets an OpenShift token, without any network round trip.
+ */
+public class StubAuthServiceInterceptor implements Interceptor {
+
+  private static final MediaType JSON = MediaType.parse("application/json");
+
+  private final String responseBody;
+
+  public StubAuthServiceInterceptor(String accessToken) {
+    this.responseBody = "{\"access_token\":\"" + accessToken + "\",\"token_type\":\"bearer\"}";
+  }
+
+  /** Returns a client whose calls are all answered by a new stub. */
+  public static OkHttpClient client(String accessToken) {
+    return new OkHttpClient.Builder()
+        .addInterceptor(new StubAuthServiceInterceptor(accessToken))
+        .build();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    return new Response.Builder()
+        .request(chain.request())
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(ResponseBody.create(JSON, responseBody))
+        .build();
+  }
+}
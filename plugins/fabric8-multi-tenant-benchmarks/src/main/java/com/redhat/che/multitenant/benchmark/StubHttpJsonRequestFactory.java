@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.benchmark;
+
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.che.api.core.rest.HttpJsonRequest;
+import org.eclipse.che.api.core.rest.HttpJsonRequestFactory;
+import org.eclipse.che.api.core.rest.HttpJsonResponse;
+import org.eclipse.che.api.core.rest.shared.dto.Link;
+
+/**
+ * Stands in for the fabric8 auth service in benchmarks: every request gets the same response body,
+ * without any network round trip.
+ */
+public class StubHttpJsonRequestFactory implements HttpJsonRequestFactory {
+
+  private final String responseBody;
+
+  public StubHttpJsonRequestFactory(String responseBody) {
+    this.responseBody = responseBody;
+  }
+
+  @Override
+  public HttpJsonRequest fromUrl(String url) {
+    return new StubRequest(url);
+  }
+
+  @Override
+  public HttpJsonRequest fromLink(Link link) {
+    return new StubRequest(link.getHref());
+  }
+
+  private class StubRequest implements HttpJsonRequest {
+    private final String url;
+
+    private StubRequest(String url) {
+      this.url = url;
+    }
+
+    @Override
+    public HttpJsonRequest setMethod(String method) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest setBody(Object body) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest setBody(Map<String, String> map) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest setBody(List<?> list) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest addQueryParam(String name, Object value) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest addHeader(String name, String value) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest setAuthorizationHeader(String value) {
+      return this;
+    }
+
+    @Override
+    public HttpJsonRequest setTimeout(int timeoutMs) {
+      return this;
+    }
+
+    @Override
+    public String getUrl() {
+      return url;
+    }
+
+    @Override
+    public HttpJsonResponse request() {
+      return new StubResponse();
+    }
+  }
+
+  private class StubResponse implements HttpJsonResponse {
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public String asString() {
+      return responseBody;
+    }
+
+    @Override
+    public <T> T asDto(Class<T> dtoInterface) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> List<T> asList(Class<T> dtoInterface) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, String> asProperties() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T as(Class<T> clazz, Type genericType) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return Collections.emptyMap();
+    }
+  }
+}
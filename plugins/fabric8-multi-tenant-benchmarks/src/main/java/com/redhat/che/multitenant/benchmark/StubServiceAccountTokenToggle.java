@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.benchmark;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+
+import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
+import no.finn.unleash.ActivationStrategy;
+import no.finn.unleash.FeatureToggle;
+
+/**
+ * Toggle with a fixed state for all the users, without any connection to the feature toggles
+ * service.
+ */
+public class StubServiceAccountTokenToggle extends CheServiceAccountTokenToggle {
+
+  public StubServiceAccountTokenToggle(boolean enabled) {
+    this(
+        new FeatureToggle(
+            "che.serviceaccount.lockdown",
+            enabled,
+            singletonList(new ActivationStrategy("default", emptyMap()))));
+  }
+
+  private StubServiceAccountTokenToggle(FeatureToggle toggle) {
+    super(name -> toggle);
+  }
+}
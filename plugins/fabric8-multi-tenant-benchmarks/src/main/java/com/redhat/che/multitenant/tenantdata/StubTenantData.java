@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.redhat.che.multitenant.benchmark.StubHttpJsonRequestFactory;
+
+/**
+ * Tenant data components keyed by token, whose loads are answered by a {@link
+ * StubHttpJsonRequestFactory}, for the benchmarks of other packages.
+ */
+public class StubTenantData {
+
+  private final ClusterCapacityIndex clusterCapacityIndex;
+  private final TenantDataProvider tenantDataProvider;
+
+  public StubTenantData(String userServicesResponse, long cacheMaxSize) {
+    TenantDataCacheLoader cacheLoader =
+        new TenantDataCacheLoader(
+            new StubHttpJsonRequestFactory(userServicesResponse), "https://auth.openshift.io");
+    clusterCapacityIndex = new ClusterCapacityIndex(30, 300);
+    tenantDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            "che",
+            false,
+            false,
+            cacheMaxSize,
+            10,
+            0,
+            5,
+            30,
+            null,
+            new TenantDataSnapshot(null, 5, 60),
+            clusterCapacityIndex);
+  }
+
+  public ClusterCapacityIndex getClusterCapacityIndex() {
+    return clusterCapacityIndex;
+  }
+
+  public TenantDataProvider getTenantDataProvider() {
+    return tenantDataProvider;
+  }
+}
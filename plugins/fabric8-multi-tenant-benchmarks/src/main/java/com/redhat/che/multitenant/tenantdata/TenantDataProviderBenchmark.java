@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.redhat.che.multitenant.benchmark.Fixtures;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link TenantDataProvider#getUserCheTenantData(Subject, String)} when the tenant data of
+ * the user are cached, and when they have to be loaded from the (stubbed) fabric8 auth service.
+ *
+ * <p>Misses use a new token for each invocation, so they include the parsing of the response, the
+ * cluster capacity recording and the eviction of the least recently used entry.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar TenantDataProviderBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TenantDataProviderBenchmark {
+
+  private static final int CACHE_SIZE = 1000;
+
+  private TenantDataProvider tenantDataProvider;
+  private Subject cachedSubject;
+
+  @Setup
+  public void setUp() throws InfrastructureException {
+    tenantDataProvider =
+        new StubTenantData(Fixtures.load("user-services-response.json"), CACHE_SIZE)
+            .getTenantDataProvider();
+    cachedSubject = new SubjectImpl("user", "userId", "token", false);
+    tenantDataProvider.getUserCheTenantData(cachedSubject, "che");
+  }
+
+  /** Subjects whose tokens were never used, unique across the benchmark threads. */
+  @State(Scope.Thread)
+  public static class MissingSubjects {
+    private String tokenPrefix;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+      tokenPrefix = "token-" + Thread.currentThread().getId() + '-';
+    }
+
+    Subject next() {
+      return new SubjectImpl("user", "userId", tokenPrefix + counter++, false);
+    }
+  }
+
+  @Benchmark
+  public UserCheTenantData hit() throws InfrastructureException {
+    return tenantDataProvider.getUserCheTenantData(cachedSubject, "che");
+  }
+
+  @Benchmark
+  @Threads(4)
+  public UserCheTenantData hitContended() throws InfrastructureException {
+    return tenantDataProvider.getUserCheTenantData(cachedSubject, "che");
+  }
+
+  @Benchmark
+  public UserCheTenantData miss(MissingSubjects subjects) throws InfrastructureException {
+    return tenantDataProvider.getUserCheTenantData(subjects.next(), "che");
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.redhat.che.multitenant.benchmark.Fixtures;
+import com.redhat.che.multitenant.benchmark.StubHttpJsonRequestFactory;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing cost of the fabric8 {@code /api/user/services} response.
+ *
+ * <p>Run with the GC profiler to get the allocation per load ({@code gc.alloc.rate.norm}):
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar UserServicesParsingBenchmark -prof gc
+ * </pre>
+ *
+ * {@link #treeBinding()} approximates the former parsing, which created a {@link Gson} per load and
+ * bound the whole response, as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServicesParsingBenchmark {
+
+  @Param({"user-services-response.json", "user-services-response-large.json"})
+  public String fixture;
+
+  private String responseBody;
+  private TenantDataCacheLoader cacheLoader;
+  private TenantDataCacheKey cacheKey;
+
+  @Setup
+  public void setUp() {
+    responseBody = Fixtures.load(fixture);
+    cacheLoader =
+        new TenantDataCacheLoader(
+            new StubHttpJsonRequestFactory(responseBody), "https://auth.openshift.io");
+    cacheKey = new TenantDataCacheKey("token");
+  }
+
+  @Benchmark
+  public UserTenantNamespaces streaming() {
+    return UserServicesResponseParser.parse(new StringReader(responseBody));
+  }
+
+  @Benchmark
+  public Map<String, UserCheTenantData> treeBinding() {
+    JsonObject response = new Gson().fromJson(responseBody, JsonObject.class);
+    Map<String, UserCheTenantData> namespacesByType = new HashMap<>();
+    for (JsonElement element :
+        response
+            .getAsJsonObject("data")
+            .getAsJsonObject("attributes")
+            .getAsJsonArray("namespaces")) {
+      JsonObject ns = element.getAsJsonObject();
+      namespacesByType.putIfAbsent(
+          ns.get("type").getAsString(),
+          new UserCheTenantData(
+              ns.get("name").getAsString(),
+              ns.get("cluster-url").getAsString(),
+              ns.get("cluster-app-domain").getAsString(),
+              ns.get("cluster-capacity-exhausted").getAsBoolean()));
+    }
+    return namespacesByType;
+  }
+
+  @Benchmark
+  public UserTenantNamespaces load() throws InfrastructureException {
+    return cacheLoader.load(cacheKey);
+  }
+}
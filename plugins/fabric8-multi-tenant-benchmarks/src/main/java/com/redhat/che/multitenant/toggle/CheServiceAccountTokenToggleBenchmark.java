@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.toggle;
+
+import static java.util.Collections.singletonList;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import no.finn.unleash.ActivationStrategy;
+import no.finn.unleash.DefaultUnleash;
+import no.finn.unleash.FeatureToggle;
+import no.finn.unleash.Unleash;
+import no.finn.unleash.UnleashContext;
+import no.finn.unleash.util.UnleashConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the evaluation of the Che service account toggle for a user, by the Unleash client as
+ * before the toggle was precomputed, and by {@link CheServiceAccountTokenToggle}.
+ *
+ * <p>The toggle either enables a list of {@code users} users, or a rollout of 50% of the users.
+ * Both evaluations read the toggle from the same in-memory repository.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar CheServiceAccountTokenToggleBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheServiceAccountTokenToggleBenchmark {
+
+  private static final String FEATURE_NAME = "che.serviceaccount.lockdown";
+
+  @Param({ToggleSnapshot.USER_WITH_ID_STRATEGY, ToggleSnapshot.GRADUAL_ROLLOUT_USER_ID_STRATEGY})
+  public String strategy;
+
+  @Param({"1000"})
+  public int users;
+
+  private Unleash unleash;
+  private CheServiceAccountTokenToggle toggle;
+  private String[] userIds;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    userIds = new String[users];
+    StringJoiner listedUsers = new StringJoiner(",");
+    for (int i = 0; i < users; i++) {
+      userIds[i] = UUID.randomUUID().toString();
+      // half of the users are listed
+      if (i % 2 == 0) {
+        listedUsers.add(userIds[i]);
+      }
+    }
+    Map<String, String> parameters =
+        ToggleSnapshot.USER_WITH_ID_STRATEGY.equals(strategy)
+            ? ImmutableMap.of(ToggleSnapshot.USER_IDS_PARAM, listedUsers.toString())
+            : ImmutableMap.of(
+                ToggleSnapshot.PERCENTAGE_PARAM, "50", ToggleSnapshot.GROUP_ID_PARAM, "che");
+    FeatureToggle featureToggle =
+        new FeatureToggle(
+            FEATURE_NAME, true, singletonList(new ActivationStrategy(strategy, parameters)));
+    unleash =
+        new DefaultUnleash(
+            UnleashConfig.builder()
+                .appName("rh-che")
+                .unleashAPI("http://localhost/api")
+                .disableMetrics()
+                .build(),
+            name -> featureToggle);
+    toggle = new CheServiceAccountTokenToggle(name -> featureToggle);
+  }
+
+  /** Evaluation of the toggle by the Unleash client, with a new context per call. */
+  @Benchmark
+  public boolean unleash() {
+    UnleashContext context = UnleashContext.builder().userId(nextUserId()).build();
+    return unleash.isEnabled(FEATURE_NAME, context);
+  }
+
+  /** Evaluation of the toggle from its precomputed snapshot. */
+  @Benchmark
+  public boolean snapshot() {
+    return toggle.useCheServiceAccountToken(nextUserId());
+  }
+
+  private String nextUserId() {
+    String userId = userIds[next];
+    next = (next + 1) % userIds.length;
+    return userId;
+  }
+}
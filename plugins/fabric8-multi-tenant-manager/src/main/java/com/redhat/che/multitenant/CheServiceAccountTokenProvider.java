@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.eclipse.che.multiuser.keycloak.shared.KeycloakConstants.OIDC_PROVIDER_SETTING;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.eclipse.che.commons.annotation.Nullable;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the token of the Che service account, retrieved from the OIDC provider with the client
+ * credentials of the service account.
+ *
+ * <p>The token is retrieved at startup, and refreshed in the background {@code
+ * che.fabric8.service_account.token.refresh_before_expiry_sec} seconds before it expires, according
+ * to the {@code expires_in} attribute of the token endpoint response, or after {@code
+ * che.fabric8.service_account.token.default_lifetime_min} minutes when the response has no such
+ * attribute. When a refresh fails, it is retried every {@code
+ * che.fabric8.service_account.token.retry_delay_sec} seconds, and the current token keeps being
+ * provided meanwhile.
+ *
+ * <p>When Che metrics are enabled, the age of the provided token is published as {@code
+ * service_account_token.age}.
+ */
+@Singleton
+public class CheServiceAccountTokenProvider implements MeterBinder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CheServiceAccountTokenProvider.class);
+
+  private final String serviceAccountId;
+  private final String serviceAccountSecret;
+  private final String tokenEndpoint;
+  private final OkHttpClient httpClient;
+  private final long defaultLifetimeNanos;
+  private final long refreshBeforeExpiryNanos;
+  private final long retryDelayNanos;
+  private final Ticker ticker;
+  private final ScheduledExecutorService refresher;
+  private final AtomicReference<Token> token = new AtomicReference<>();
+
+  private volatile ScheduledFuture<?> refreshTask;
+
+  @Inject
+  public CheServiceAccountTokenProvider(
+      @Nullable @Named("che.openshift.service_account.id") String serviceAccountId,
+      @Nullable @Named("che.openshift.service_account.secret") String serviceAccountSecret,
+      @Nullable @Named(OIDC_PROVIDER_SETTING) String oidcProvider,
+      @Named("che.fabric8.service_account.http_client") OkHttpClient httpClient,
+      @Named("che.fabric8.service_account.token.default_lifetime_min") long defaultLifetimeMin,
+      @Named("che.fabric8.service_account.token.refresh_before_expiry_sec")
+          long refreshBeforeExpirySec,
+      @Named("che.fabric8.service_account.token.retry_delay_sec") long retryDelaySec) {
+    this(
+        serviceAccountId,
+        serviceAccountSecret,
+        oidcProvider,
+        httpClient,
+        defaultLifetimeMin,
+        refreshBeforeExpirySec,
+        retryDelaySec,
+        Ticker.systemTicker(),
+        createRefresher());
+  }
+
+  @VisibleForTesting
+  CheServiceAccountTokenProvider(
+      String serviceAccountId,
+      String serviceAccountSecret,
+      String oidcProvider,
+      OkHttpClient httpClient,
+      long defaultLifetimeMin,
+      long refreshBeforeExpirySec,
+      long retryDelaySec,
+      Ticker ticker,
+      ScheduledExecutorService refresher) {
+    this.serviceAccountId = serviceAccountId;
+    this.serviceAccountSecret = serviceAccountSecret;
+    this.tokenEndpoint =
+        isNullOrEmpty(serviceAccountId) || isNullOrEmpty(oidcProvider)
+            ? null
+            : oidcProvider + "/token";
+    this.httpClient = httpClient;
+    this.defaultLifetimeNanos = TimeUnit.MINUTES.toNanos(defaultLifetimeMin);
+    this.refreshBeforeExpiryNanos = TimeUnit.SECONDS.toNanos(refreshBeforeExpirySec);
+    this.retryDelayNanos = TimeUnit.SECONDS.toNanos(retryDelaySec);
+    this.ticker = ticker;
+    this.refresher = refresher;
+  }
+
+  /**
+   * Retrieves the token of the service account, when it is configured.
+   *
+   * @throws RuntimeException when the token cannot be retrieved
+   */
+  @PostConstruct
+  void start() {
+    if (tokenEndpoint == null) {
+      return;
+    }
+    Token retrieved;
+    try {
+      retrieved = retrieveToken();
+    } catch (IOException | RuntimeException e) {
+      throw new RuntimeException(
+          "Service account token retrieving failed. Error: " + e.getMessage(), e);
+    }
+    token.set(retrieved);
+    LOG.info("Che Service account token has been successfully retrieved");
+    scheduleRefresh(retrieved.refreshAtNanos - ticker.read());
+  }
+
+  @PreDestroy
+  void shutdown() {
+    ScheduledFuture<?> task = refreshTask;
+    if (task != null) {
+      task.cancel(false);
+    }
+    refresher.shutdownNow();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("service_account_token.age", this, CheServiceAccountTokenProvider::getTokenAge)
+        .description("Age of the Che service account token")
+        .baseUnit("seconds")
+        .register(registry);
+  }
+
+  /**
+   * Returns the token of the Che service account, or {@code null} when the service account is not
+   * configured.
+   */
+  @Nullable
+  public String getToken() {
+    Token current = token.get();
+    return current != null ? current.value : null;
+  }
+
+  /** Retrieves a new token, and schedules the next refresh according to the result. */
+  @VisibleForTesting
+  void refresh() {
+    long nextRefreshDelayNanos;
+    try {
+      Token retrieved = retrieveToken();
+      token.set(retrieved);
+      nextRefreshDelayNanos = retrieved.refreshAtNanos - ticker.read();
+      LOG.debug("Che Service account token has been successfully refreshed");
+    } catch (IOException | RuntimeException e) {
+      nextRefreshDelayNanos = retryDelayNanos;
+      LOG.warn(
+          "Failed to refresh the Che Service account token, retrying in {} seconds. Error: {}",
+          TimeUnit.NANOSECONDS.toSeconds(retryDelayNanos),
+          e.getMessage());
+    }
+    scheduleRefresh(nextRefreshDelayNanos);
+  }
+
+  private void scheduleRefresh(long delayNanos) {
+    try {
+      refreshTask =
+          refresher.schedule(this::refresh, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // shut down
+    }
+  }
+
+  private double getTokenAge() {
+    Token current = token.get();
+    if (current == null) {
+      return Double.NaN;
+    }
+    return (double) (ticker.read() - current.requestedAtNanos) / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private Token retrieveToken() throws IOException {
+    RequestBody requestBody =
+        new FormBody.Builder()
+            .add("grant_type", "client_credentials")
+            .add("client_id", serviceAccountId)
+            .add("client_secret", serviceAccountSecret != null ? serviceAccountSecret : "")
+            .build();
+    Request request = new Request.Builder().url(tokenEndpoint).post(requestBody).build();
+    long requestedAt = ticker.read();
+    try (Response response = httpClient.newCall(request).execute()) {
+      // Ignore IDE warning:
+      // body is not null after call of execute() according to javadocs of method body()
+      String body = response.body().string();
+      if (!response.isSuccessful()) {
+        throw new IOException("Unexpected response from the token endpoint: " + body);
+      }
+      JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+      JsonElement expiresIn = json.get("expires_in");
+      long lifetimeNanos =
+          expiresIn != null && !expiresIn.isJsonNull()
+              ? TimeUnit.SECONDS.toNanos(expiresIn.getAsLong())
+              : defaultLifetimeNanos;
+      return new Token(json.get("access_token").getAsString(), requestedAt, lifetimeNanos);
+    }
+  }
+
+  private static boolean isNullOrEmpty(String value) {
+    return value == null || value.isEmpty();
+  }
+
+  private static ScheduledExecutorService createRefresher() {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            new ThreadFactoryBuilder()
+                .setNameFormat("CheServiceAccountTokenRefresher-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * Service account token with the instants, in ticker nanoseconds, of its retrieval and refresh.
+   */
+  private class Token {
+    private final String value;
+    private final long requestedAtNanos;
+    private final long refreshAtNanos;
+
+    private Token(String value, long requestedAtNanos, long lifetimeNanos) {
+      this.value = value;
+      this.requestedAtNanos = requestedAtNanos;
+      // the lifetime starts when the token is issued, which is before it is received, and
+      // tokens whose lifetime is shorter than the refresh delay are refreshed at half-life
+      this.refreshAtNanos =
+          requestedAtNanos + lifetimeNanos - Math.min(refreshBeforeExpiryNanos, lifetimeNanos / 2);
+    }
+  }
+}
@@ -12,6 +12,14 @@
 package com.redhat.che.multitenant;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import com.redhat.che.multitenant.multicluster.ClusterHealthService;
+import com.redhat.che.multitenant.multicluster.ClusterHealthTracker;
+import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import javax.inject.Singleton;
+import okhttp3.OkHttpClient;
 import org.eclipse.che.inject.DynaModule;
 import org.eclipse.che.workspace.infrastructure.openshift.OpenShiftClientFactory;
 import org.eclipse.che.workspace.infrastructure.openshift.OpenShiftEnvironmentProvisioner;
@@ -30,5 +38,21 @@ public class Fabric8MultiTenantModule extends AbstractModule {
     bind(OpenShiftClientFactory.class).to(Fabric8OpenShiftClientFactory.class);
     bind(OpenShiftProjectFactory.class).to(Fabric8OpenShiftProjectFactory.class);
     bind(OpenShiftEnvironmentProvisioner.class).to(RhCheInfraEnvironmentProvisioner.class);
+    bind(ClusterHealthService.class);
+
+    // Shared by the Che service account and OpenShift user token providers, so that their calls to
+    // the auth services share its connection pool
+    bind(OkHttpClient.class)
+        .annotatedWith(Names.named("che.fabric8.service_account.http_client"))
+        .to(OkHttpClient.class)
+        .in(Singleton.class);
+
+    // Bound to the Che Prometheus registry when Che metrics are enabled
+    Multibinder<MeterBinder> meterBinders = Multibinder.newSetBinder(binder(), MeterBinder.class);
+    meterBinders.addBinding().to(TenantDataProvider.class);
+    meterBinders.addBinding().to(OpenshiftUserTokenProvider.class);
+    meterBinders.addBinding().to(WorkspaceSubjectsRegistry.class);
+    meterBinders.addBinding().to(CheServiceAccountTokenProvider.class);
+    meterBinders.addBinding().to(ClusterHealthTracker.class);
   }
 }
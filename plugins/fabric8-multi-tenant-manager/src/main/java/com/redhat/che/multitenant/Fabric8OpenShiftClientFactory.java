@@ -11,19 +11,34 @@
  */
 package com.redhat.che.multitenant;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.inject.Provider;
+import com.redhat.che.multitenant.multicluster.ClusterHealthTracker;
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
 import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
 import io.fabric8.kubernetes.client.Config;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Objects;
 import java.util.Optional;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import okhttp3.EventListener;
 import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
 import org.eclipse.che.api.core.model.workspace.runtime.RuntimeIdentity;
+import org.eclipse.che.api.core.notification.EventService;
+import org.eclipse.che.api.core.notification.EventSubscriber;
 import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.api.workspace.server.spi.RuntimeContext;
+import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
 import org.eclipse.che.commons.annotation.Nullable;
 import org.eclipse.che.commons.env.EnvironmentContext;
 import org.eclipse.che.commons.subject.Subject;
@@ -33,15 +48,41 @@ import org.eclipse.che.workspace.infrastructure.openshift.OpenShiftClientFactory
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** @author Sergii Leshchenko */
+/**
+ * Builds the configuration of the OpenShift clients with the connection information of the user who
+ * owns the workspace, or of the current user.
+ *
+ * <p>Built configurations are cached by workspace ID and effective user identity, i.e. the user ID,
+ * a SHA-256 fingerprint of the token and whether the Che service account token is used for this
+ * user. A new configuration is thus built as soon as the token of the user changes or the toggle
+ * flips, and the configurations of a workspace are invalidated when it stops. Since tenant data are
+ * only retrieved when a configuration is built, cached configurations expire after {@code
+ * che.fabric8.client_config.cache.expire_after_write_sec} seconds, while the capacity of the
+ * cluster of the user is checked again on each call, with the tenant data cached along with the
+ * configuration.
+ *
+ * <p>Cached configurations are returned to all the callers without being copied. They are only
+ * referenced by this cache, and neither the Che infrastructure nor the fabric8 clients modify the
+ * configuration they are created with, the OpenShift clients even work on their own copy.
+ *
+ * <p>When requests are routed directly to the cluster of the user, the event listener of the
+ * clients reports the failures of their requests to the {@link DirectClusterRouting}, and the
+ * cached configurations for a cluster that falls back to the proxy are built again. The requests of
+ * all the clients are tracked by the {@link ClusterHealthTracker}.
+ *
+ * @author Sergii Leshchenko
+ */
 @Singleton
-public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
+public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory
+    implements EventSubscriber<WorkspaceStatusEvent> {
 
   private final Fabric8WorkspaceEnvironmentProvider envProvider;
   private final Provider<WorkspaceRuntimes> workspaceRuntimeProvider;
   private final WorkspaceSubjectsRegistry subjectsRegistry;
   private final KubernetesRuntimeStateCache runtimeStateCache;
   private final CheServiceAccountTokenToggle cheServiceAccountTokenToggle;
+  private final DirectClusterRouting directClusterRouting;
+  private final Cache<ConfigCacheKey, CachedConfig> configCache;
 
   private static final Logger LOG = LoggerFactory.getLogger(Fabric8OpenShiftClientFactory.class);
 
@@ -52,6 +93,8 @@ public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
       WorkspaceSubjectsRegistry subjectsRegistry,
       KubernetesRuntimeStateCache runtimeStateCache,
       CheServiceAccountTokenToggle cheServiceAccountTokenToggle,
+      DirectClusterRouting directClusterRouting,
+      ClusterHealthTracker clusterHealthTracker,
       @Nullable @Named("che.infra.kubernetes.trust_certs") Boolean doTrustCerts,
       @Named("che.infra.kubernetes.client.http.async_requests.max") int maxConcurrentRequests,
       @Named("che.infra.kubernetes.client.http.async_requests.max_per_host")
@@ -59,7 +102,10 @@ public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
       @Named("che.infra.kubernetes.client.http.connection_pool.max_idle") int maxIdleConnections,
       @Named("che.infra.kubernetes.client.http.connection_pool.keep_alive_min")
           int connectionPoolKeepAlive,
-      EventListener eventListener) {
+      EventListener eventListener,
+      @Named("che.fabric8.client_config.cache.max_size") long configCacheMaxSize,
+      @Named("che.fabric8.client_config.cache.expire_after_write_sec")
+          long configCacheExpireAfterWriteSec) {
     super(
         null,
         null,
@@ -68,12 +114,32 @@ public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
         maxConcurrentRequestsPerHost,
         maxIdleConnections,
         connectionPoolKeepAlive,
-        eventListener);
+        directClusterRouting.reportingFailures(clusterHealthTracker.tracking(eventListener)));
     this.envProvider = envProvider;
     this.workspaceRuntimeProvider = workspaceRuntimeProvider;
     this.subjectsRegistry = subjectsRegistry;
     this.runtimeStateCache = runtimeStateCache;
     this.cheServiceAccountTokenToggle = cheServiceAccountTokenToggle;
+    this.directClusterRouting = directClusterRouting;
+    this.configCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(configCacheMaxSize)
+            .expireAfterWrite(Duration.ofSeconds(configCacheExpireAfterWriteSec))
+            .build();
+  }
+
+  @VisibleForTesting
+  @Inject
+  void subscribe(EventService eventService) {
+    eventService.subscribe(this);
+  }
+
+  @Override
+  public void onEvent(WorkspaceStatusEvent event) {
+    if (WorkspaceStatus.STOPPED.equals(event.getStatus())) {
+      String workspaceId = event.getWorkspaceId();
+      configCache.asMap().keySet().removeIf(key -> workspaceId.equals(key.workspaceId));
+    }
   }
 
   @Override
@@ -126,7 +192,35 @@ public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
             subject.getUserId());
       }
     }
-    return envProvider.getWorkspacesOpenshiftConfig(subject);
+    return getWorkspacesOpenshiftConfig(workspaceId, subject);
+  }
+
+  private Config getWorkspacesOpenshiftConfig(@Nullable String workspaceId, Subject subject)
+      throws InfrastructureException {
+    if (subject == null || subject.isAnonymous()) {
+      // fails in the environment provider
+      return envProvider.getWorkspacesOpenshiftConfig(subject);
+    }
+    ConfigCacheKey key =
+        new ConfigCacheKey(
+            workspaceId,
+            subject,
+            cheServiceAccountTokenToggle.useCheServiceAccountToken(subject.getUserId()));
+    CachedConfig cached = configCache.getIfPresent(key);
+    if (cached != null
+        && directClusterRouting.isEnabled()
+        && directClusterRouting.isFallingBack(cached.config.getMasterUrl())) {
+      cached = null;
+    }
+    if (cached == null) {
+      UserCheTenantData tenantData = envProvider.getUserCheTenantData(subject);
+      Config config = envProvider.getWorkspacesOpenshiftConfig(subject, tenantData);
+      configCache.put(key, new CachedConfig(config, tenantData));
+      return config;
+    }
+    // the capacity of the cluster changes more often than cached configurations expire
+    envProvider.checkClusterCapacity(cached.tenantData, subject.getToken());
+    return cached.config;
   }
 
   private Optional<RuntimeIdentity> getRuntimeIdentity(String workspaceId) {
@@ -135,4 +229,56 @@ public class Fabric8OpenShiftClientFactory extends OpenShiftClientFactory {
         workspaceRuntimeProvider.get().getRuntimeContext(workspaceId);
     return context.map(c -> c.getIdentity());
   }
+
+  private static final class CachedConfig {
+    private final Config config;
+    private final UserCheTenantData tenantData;
+
+    private CachedConfig(Config config, UserCheTenantData tenantData) {
+      this.config = config;
+      this.tenantData = tenantData;
+    }
+  }
+
+  private static final class ConfigCacheKey {
+    private final String workspaceId;
+    private final String userId;
+    private final HashCode tokenFingerprint;
+    private final String guessedNamespace;
+    private final boolean useCheServiceAccountToken;
+
+    private ConfigCacheKey(
+        @Nullable String workspaceId, Subject subject, boolean useCheServiceAccountToken) {
+      this.workspaceId = workspaceId;
+      this.userId = subject.getUserId();
+      String token = subject.getToken();
+      this.tokenFingerprint =
+          token != null ? Hashing.sha256().hashString(token, StandardCharsets.UTF_8) : null;
+      this.guessedNamespace =
+          subject instanceof GuessedSubject ? ((GuessedSubject) subject).getNamespace() : null;
+      this.useCheServiceAccountToken = useCheServiceAccountToken;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ConfigCacheKey)) {
+        return false;
+      }
+      ConfigCacheKey other = (ConfigCacheKey) obj;
+      return useCheServiceAccountToken == other.useCheServiceAccountToken
+          && Objects.equals(workspaceId, other.workspaceId)
+          && Objects.equals(userId, other.userId)
+          && Objects.equals(tokenFingerprint, other.tokenFingerprint)
+          && Objects.equals(guessedNamespace, other.guessedNamespace);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          workspaceId, userId, tokenFingerprint, guessedNamespace, useCheServiceAccountToken);
+    }
+  }
 }
@@ -11,8 +11,14 @@
  */
 package com.redhat.che.multitenant;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 import org.eclipse.che.api.core.model.workspace.runtime.RuntimeIdentity;
 import org.eclipse.che.api.user.server.PreferenceManager;
 import org.eclipse.che.api.user.server.UserManager;
@@ -31,13 +37,28 @@ import org.eclipse.che.workspace.infrastructure.openshift.provision.OpenShiftSto
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** @author Sergii Leshchenko */
+/**
+ * Evaluates the namespace of the workspaces of a user to their {@code *-che} tenant namespace.
+ *
+ * <p>A workspace start evaluates the namespace several times, and the namespace resolved for a
+ * subject is memoized as long as this subject instance is in use, that is for the duration of the
+ * request or of the workspace start that it was propagated to, and at most {@code
+ * che.fabric8.namespace.cache.expire_after_write_sec} seconds.
+ *
+ * <p>A new project is created for each operation on a workspace runtime, since projects hold the
+ * watchers and event handlers of the runtime they were created for. Only the namespace lookup is
+ * reused, and the clients of the projects are cached by the {@link OpenShiftClientFactory}.
+ *
+ * @author Sergii Leshchenko
+ */
+@Singleton
 public class Fabric8OpenShiftProjectFactory extends OpenShiftProjectFactory {
   private static final Logger LOG = LoggerFactory.getLogger(Fabric8OpenShiftProjectFactory.class);
 
   private final OpenShiftClientFactory clientFactory;
   private final CheServerKubernetesClientFactory cheServerKubernetesClientFactory;
   private final Fabric8WorkspaceEnvironmentProvider envProvider;
+  private final Cache<Subject, String> namespaces;
 
   @Inject
   public Fabric8OpenShiftProjectFactory(
@@ -50,8 +71,8 @@ public class Fabric8OpenShiftProjectFactory extends OpenShiftProjectFactory {
       UserManager userManager,
       PreferenceManager preferenceManager,
       KubernetesSharedPool sharedPool,
-      @Nullable @Named("che.infra.openshift.oauth_identity_provider")
-          String oAuthIdentityProvider) {
+      @Nullable @Named("che.infra.openshift.oauth_identity_provider") String oAuthIdentityProvider,
+      @Named("che.fabric8.namespace.cache.expire_after_write_sec") long expireAfterWriteSec) {
     super(
         projectName,
         null,
@@ -73,6 +94,12 @@ public class Fabric8OpenShiftProjectFactory extends OpenShiftProjectFactory {
     this.clientFactory = clientFactory;
     this.cheServerKubernetesClientFactory = cheServerKubernetesClientFactory;
     this.envProvider = envProvider;
+    // subjects are compared by identity, and dropped with the request that uses them
+    this.namespaces =
+        CacheBuilder.newBuilder()
+            .weakKeys()
+            .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec))
+            .build();
   }
 
   @Override
@@ -120,7 +147,20 @@ public class Fabric8OpenShiftProjectFactory extends OpenShiftProjectFactory {
 
   private String evaluateNamespace() throws InfrastructureException {
     Subject currentSubject = EnvironmentContext.getCurrent().getSubject();
-    String namespace = envProvider.getWorkspacesOpenshiftNamespace(currentSubject);
-    return namespace;
+    if (currentSubject == null || currentSubject == Subject.ANONYMOUS) {
+      // rejected by the environment provider
+      return envProvider.getWorkspacesOpenshiftNamespace(currentSubject);
+    }
+    try {
+      return namespaces.get(
+          currentSubject, () -> envProvider.getWorkspacesOpenshiftNamespace(currentSubject));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InfrastructureException) {
+        throw (InfrastructureException) e.getCause();
+      }
+      throw new InfrastructureException(e.getCause().getMessage(), e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new InfrastructureException(e.getCause().getMessage(), e.getCause());
+    }
   }
 }
@@ -11,24 +11,17 @@
  */
 package com.redhat.che.multitenant;
 
-import static org.eclipse.che.multiuser.keycloak.shared.KeycloakConstants.OIDC_PROVIDER_SETTING;
-
-import com.google.gson.JsonParser;
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
 import com.redhat.che.multitenant.multicluster.MultiClusterOpenShiftProxy;
+import com.redhat.che.multitenant.tenantdata.ClusterCapacityIndex;
 import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
 import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
 import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
-import java.io.IOException;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import okhttp3.FormBody;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.commons.annotation.Nullable;
 import org.eclipse.che.commons.subject.Subject;
@@ -36,6 +29,15 @@ import org.eclipse.che.inject.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Provides the OpenShift client configuration and namespace of the workspaces of a user, according
+ * to their tenant data.
+ *
+ * <p>Creating a fabric8 {@link Config} from scratch auto-configures it from system properties,
+ * environment variables and kubeconfig files, which is done only once, at startup, for a template
+ * holding the master URL, the trust settings and the timeouts. The configuration of each request is
+ * a copy of this template, with the namespace, the token and the impersonation headers of the user.
+ */
 @Singleton
 public class Fabric8WorkspaceEnvironmentProvider {
 
@@ -45,9 +47,12 @@ public class Fabric8WorkspaceEnvironmentProvider {
   private final MultiClusterOpenShiftProxy multiClusterOpenShiftProxy;
   private final CheServiceAccountTokenToggle cheServiceAccountTokenToggle;
   private final TenantDataProvider tenantDataProvider;
+  private final ClusterCapacityIndex clusterCapacityIndex;
   private final boolean standalone;
-
-  private String cheServiceAccountToken;
+  private final CheServiceAccountTokenProvider cheServiceAccountTokenProvider;
+  private final DirectClusterRouting directClusterRouting;
+  private final OpenshiftUserTokenProvider openshiftUserTokenProvider;
+  private final Config configTemplate;
 
   @Inject
   public Fabric8WorkspaceEnvironmentProvider(
@@ -55,6 +60,10 @@ public class Fabric8WorkspaceEnvironmentProvider {
       MultiClusterOpenShiftProxy multiClusterOpenShiftProxy,
       CheServiceAccountTokenToggle cheServiceAccountTokenToggle,
       TenantDataProvider tenantDataProvider,
+      ClusterCapacityIndex clusterCapacityIndex,
+      CheServiceAccountTokenProvider cheServiceAccountTokenProvider,
+      DirectClusterRouting directClusterRouting,
+      OpenshiftUserTokenProvider openshiftUserTokenProvider,
       @Named("che.fabric8.standalone") boolean standalone) {
     if (!fabric8CheMultitenant) {
       throw new ConfigurationException(
@@ -64,56 +73,41 @@ public class Fabric8WorkspaceEnvironmentProvider {
     this.multiClusterOpenShiftProxy = multiClusterOpenShiftProxy;
     this.cheServiceAccountTokenToggle = cheServiceAccountTokenToggle;
     this.tenantDataProvider = tenantDataProvider;
+    this.clusterCapacityIndex = clusterCapacityIndex;
+    this.cheServiceAccountTokenProvider = cheServiceAccountTokenProvider;
+    this.directClusterRouting = directClusterRouting;
+    this.openshiftUserTokenProvider = openshiftUserTokenProvider;
     this.standalone = standalone;
+    this.configTemplate = createConfigTemplate(multiClusterOpenShiftProxy.getUrl(), standalone);
   }
 
-  @Inject
-  private void setServiceAccountToken(
-      @Nullable @Named("che.openshift.service_account.id") String serviceAccId,
-      @Nullable @Named("che.openshift.service_account.secret") String serviceAccSecret,
-      @Nullable @Named(OIDC_PROVIDER_SETTING) String oidcProvider) {
-
-    if (serviceAccId == null
-        || serviceAccId.isEmpty()
-        || oidcProvider == null
-        || oidcProvider.isEmpty()) {
-      return;
-    }
-    OkHttpClient client = new OkHttpClient();
-    RequestBody requestBody =
-        new FormBody.Builder()
-            .add("grant_type", "client_credentials")
-            .add("client_id", serviceAccId)
-            .add("client_secret", serviceAccSecret)
-            .build();
-
-    Request request = new Request.Builder().url(oidcProvider + "/token").post(requestBody).build();
-    try (Response response = client.newCall(request).execute()) {
-      // Ignore IDE warning:
-      // body is not null after call of execute() according to javadocs of method body()
-      cheServiceAccountToken =
-          new JsonParser()
-              .parse(response.body().string())
-              .getAsJsonObject()
-              .get("access_token")
-              .getAsString();
-
-      LOG.info("Che Service account token has been successfully retrieved");
-    } catch (IOException e) {
-      throw new RuntimeException(
-          "Service account token retrieving failed. Error: " + e.getMessage(), e);
+  private static Config createConfigTemplate(String osoProxyUrl, boolean standalone) {
+    ConfigBuilder configBuilder = new ConfigBuilder().withTrustCerts(true);
+    if (!standalone) {
+      configBuilder.withMasterUrl(osoProxyUrl);
     }
+    return configBuilder.build();
   }
 
   public Config getWorkspacesOpenshiftConfig(Subject subject) throws InfrastructureException {
+    return getWorkspacesOpenshiftConfig(subject, getUserCheTenantData(subject));
+  }
+
+  /**
+   * Builds the configuration of the OpenShift clients of the given user, with their tenant data
+   * retrieved by {@link #getUserCheTenantData(Subject)}.
+   *
+   * @throws InfrastructureException when the cluster of the user is out of capacity
+   */
+  public Config getWorkspacesOpenshiftConfig(Subject subject, UserCheTenantData cheTenantData)
+      throws InfrastructureException {
     Config config;
     checkSubject(subject);
-    UserCheTenantData cheTenantData = getUserCheTenantData(subject);
-    checkClusterCapacity(cheTenantData);
-    String osoProxyUrl = multiClusterOpenShiftProxy.getUrl();
+    checkClusterCapacity(cheTenantData, subject.getToken());
     String namespace = cheTenantData.getNamespace();
 
-    ConfigBuilder configBuilder = new ConfigBuilder().withNamespace(namespace).withTrustCerts(true);
+    // the template is never modified, only copied
+    ConfigBuilder configBuilder = new ConfigBuilder(configTemplate).withNamespace(namespace);
 
     if (standalone) {
       return configBuilder.build();
@@ -123,8 +117,7 @@ public class Fabric8WorkspaceEnvironmentProvider {
     LOG.debug("The namespace '{}' is used by user '{}'", namespace, userId);
     if (cheServiceAccountTokenToggle.useCheServiceAccountToken(userId)) {
       LOG.debug("Using Che SA token for '{}'", userId);
-      config =
-          configBuilder.withMasterUrl(osoProxyUrl).withOauthToken(cheServiceAccountToken).build();
+      config = configBuilder.withOauthToken(cheServiceAccountTokenProvider.getToken()).build();
       LOG.debug("Adding Impersonate Header: '{}'", userId);
       config.getRequestConfig().setImpersonateUsername(userId);
       // hot-fix to avoid NPE in ImpersonatorInterceptor when optional `Impersonate-Group` is not
@@ -134,46 +127,83 @@ public class Fabric8WorkspaceEnvironmentProvider {
       LOG.debug("Adding Impersonate Group: 'dummyGroup'");
       config.getRequestConfig().setImpersonateGroups("dummyGroup");
     } else {
-      LOG.debug("Using OSIO user token for '{}'", userId);
-      config = configBuilder.withMasterUrl(osoProxyUrl).withOauthToken(subject.getToken()).build();
+      String clusterUrl = cheTenantData.getClusterUrl();
+      String clusterToken = getDirectClusterToken(subject, clusterUrl);
+      if (clusterToken != null) {
+        LOG.debug("Using OpenShift token of '{}' on cluster '{}'", userId, clusterUrl);
+        config = configBuilder.withMasterUrl(clusterUrl).withOauthToken(clusterToken).build();
+      } else {
+        LOG.debug("Using OSIO user token for '{}'", userId);
+        config = configBuilder.withOauthToken(subject.getToken()).build();
+      }
     }
     return config;
   }
 
-  public String getWorkspacesOpenshiftNamespace(Subject subject) throws InfrastructureException {
-    checkSubject(subject);
-    return getUserCheTenantData(subject).getNamespace();
-  }
-
-  private void checkSubject(Subject subject) throws InfrastructureException {
-    if (subject == null) {
-      throw new InfrastructureException("No Subject is found to perform this action");
-    }
-    if (subject == Subject.ANONYMOUS) {
+  /**
+   * Checks that the cluster of the given tenant data is not out of capacity, according to the
+   * up-to-date capacity of the clusters, for configurations that were built before.
+   *
+   * @param keycloakToken token of the user, used to refresh the capacity of their cluster
+   * @throws InfrastructureException when the cluster of the user is out of capacity
+   */
+  public void checkClusterCapacity(UserCheTenantData cheTenantData, @Nullable String keycloakToken)
+      throws InfrastructureException {
+    // cached tenant data may be minutes old, the capacity of their cluster is kept up to date in
+    // the index
+    if (clusterCapacityIndex.isCapacityExhausted(cheTenantData, keycloakToken)) {
       throw new InfrastructureException(
-          "The anonymous subject is used, and won't be able to perform this action");
+          "Cannot start a workspace. OpenShift Online cluster is currently out of capacity");
     }
   }
 
-  private void checkClusterCapacity(UserCheTenantData data) throws InfrastructureException {
-    if (data.isClusterCapacityExhausted() == true) {
-      throw new InfrastructureException(
-          "Cannot start a workspace. OpenShift Online cluster is currently out of capacity");
-    }
+  public String getWorkspacesOpenshiftNamespace(Subject subject) throws InfrastructureException {
+    return getUserCheTenantData(subject).getNamespace();
   }
 
-  private UserCheTenantData getUserCheTenantData(Subject subject) throws InfrastructureException {
+  /**
+   * Returns the tenant data of the Che namespace of the given user. Their cluster capacity flag may
+   * be outdated, see {@link #checkClusterCapacity(UserCheTenantData, String)}.
+   */
+  public UserCheTenantData getUserCheTenantData(Subject subject) throws InfrastructureException {
+    checkSubject(subject);
     if (subject instanceof GuessedSubject) {
       GuessedSubject guessedSubject = (GuessedSubject) subject;
       return new UserCheTenantData(
           guessedSubject.getNamespace(), multiClusterOpenShiftProxy.getUrl(), "unknown", false);
     }
+    return tenantDataProvider.getUserCheTenantData(subject, "che");
+  }
 
-    UserCheTenantData tenantData = tenantDataProvider.getUserCheTenantData(subject, "che");
-    return new UserCheTenantData(
-        tenantData.getNamespace(),
-        multiClusterOpenShiftProxy.getUrl(),
-        tenantData.getRouteBaseSuffix(),
-        tenantData.isClusterCapacityExhausted());
+  /**
+   * Returns the OpenShift token of the user when their requests can be sent directly to their
+   * cluster, or {@code null} when they have to go through the multicluster proxy.
+   */
+  @Nullable
+  private String getDirectClusterToken(Subject subject, String clusterUrl) {
+    // the cluster of guessed subjects is unknown
+    if (subject instanceof GuessedSubject || !directClusterRouting.canRouteDirectly(clusterUrl)) {
+      return null;
+    }
+    try {
+      return openshiftUserTokenProvider.getToken(subject);
+    } catch (InfrastructureException e) {
+      LOG.warn(
+          "Requests of user '{}' are sent through the multicluster proxy, "
+              + "since their OpenShift token could not be retrieved: {}",
+          subject.getUserId(),
+          e.getMessage());
+      return null;
+    }
+  }
+
+  private void checkSubject(Subject subject) throws InfrastructureException {
+    if (subject == null) {
+      throw new InfrastructureException("No Subject is found to perform this action");
+    }
+    if (subject == Subject.ANONYMOUS) {
+      throw new InfrastructureException(
+          "The anonymous subject is used, and won't be able to perform this action");
+    }
   }
 }
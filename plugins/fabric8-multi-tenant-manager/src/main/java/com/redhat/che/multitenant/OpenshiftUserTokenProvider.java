@@ -15,45 +15,113 @@ import static org.eclipse.che.multiuser.keycloak.shared.KeycloakConstants.AUTH_S
 import static org.eclipse.che.multiuser.keycloak.shared.KeycloakConstants.OIDC_PROVIDER_SETTING;
 import static org.eclipse.che.multiuser.keycloak.shared.KeycloakConstants.REALM_SETTING;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.redhat.che.multitenant.metrics.TimedCacheLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.commons.annotation.Nullable;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.commons.subject.Subject;
 
 /**
  * Retrieves Openshift user token by keycloak token from {@link Subject}.
  *
+ * <p>Retrieved tokens are cached until they expire, according to the {@code expires_in} attribute
+ * of the token endpoint response, or for {@code che.fabric8.user_token.default_lifetime_min}
+ * minutes when the response has no such attribute. An expired token is never returned: it is
+ * evicted and retrieved again on the next access. When a cached token expires within {@code
+ * che.fabric8.user_token.cache.refresh_before_expiry_sec} seconds, it is retrieved again in the
+ * background on the next access, and the cached token keeps being returned meanwhile.
+ *
+ * <p>The size of the cache is configured with {@code che.fabric8.user_token.cache.max_size}. When
+ * Che metrics are enabled, the cache statistics and the latency of the retrievals are published
+ * with the {@code fabric8_user_token} cache name.
+ *
  * @author Oleksandr Garagatyi
  */
 @Singleton
-public class OpenshiftUserTokenProvider {
+public class OpenshiftUserTokenProvider implements MeterBinder {
 
-  private static final int CACHE_TIMEOUT_MINUTES = 10;
-  private static final int CONCURRENT_USERS = 500;
+  private static final String CACHE_NAME = "fabric8_user_token";
+  private static final int REFRESH_THREADS = 2;
+  private static final int REFRESH_QUEUE_SIZE = 100;
 
   private final String tokenEndpoint;
   private final OkHttpClient httpClient;
-  private final LoadingCache<String, String> tokenCache;
+  private final Ticker ticker;
+  private final long defaultLifetimeNanos;
+  private final long refreshBeforeExpiryNanos;
+  private final ExecutorService refreshExecutor;
+  private final TimedCacheLoader<String, CachedToken> timedCacheLoader;
+  private final LoadingCache<String, CachedToken> tokenCache;
+  private final ConcurrentMap<String, TokenRetrieval> retrievals = new ConcurrentHashMap<>();
 
   @Inject
   public OpenshiftUserTokenProvider(
       @Nullable @Named(OIDC_PROVIDER_SETTING) String oidcProvider,
       @Nullable @Named(AUTH_SERVER_URL_SETTING) String keycloakServerURL,
       @Nullable @Named(REALM_SETTING) String keycloakRealm,
+      @Named("che.fabric8.service_account.http_client") OkHttpClient httpClient,
+      @Named("che.fabric8.standalone") boolean standalone,
+      @Named("che.fabric8.user_token.cache.max_size") long maxSize,
+      @Named("che.fabric8.user_token.default_lifetime_min") long defaultLifetimeMin,
+      @Named("che.fabric8.user_token.cache.refresh_before_expiry_sec")
+          long refreshBeforeExpirySec) {
+    this(
+        oidcProvider,
+        keycloakServerURL,
+        keycloakRealm,
+        httpClient,
+        standalone,
+        maxSize,
+        defaultLifetimeMin,
+        refreshBeforeExpirySec,
+        Ticker.systemTicker(),
+        createRefreshExecutor());
+  }
+
+  @VisibleForTesting
+  OpenshiftUserTokenProvider(
+      String oidcProvider,
+      String keycloakServerURL,
+      String keycloakRealm,
       OkHttpClient httpClient,
-      @Named("che.fabric8.standalone") boolean standalone) {
+      boolean standalone,
+      long maxSize,
+      long defaultLifetimeMin,
+      long refreshBeforeExpirySec,
+      Ticker ticker,
+      ExecutorService refreshExecutor) {
 
     if (standalone) {
       // When RhChe is used in standalone mode, it uses the dedicated Keycloak as
@@ -74,11 +142,29 @@ public class OpenshiftUserTokenProvider {
       tokenEndpoint = oidcProvider + "/token?for=openshift";
     }
     this.httpClient = httpClient;
+    this.ticker = ticker;
+    this.defaultLifetimeNanos = TimeUnit.MINUTES.toNanos(defaultLifetimeMin);
+    this.refreshBeforeExpiryNanos = TimeUnit.SECONDS.toNanos(refreshBeforeExpirySec);
+    this.refreshExecutor = refreshExecutor;
+    this.timedCacheLoader = new TimedCacheLoader<>(CacheLoader.from(this::getOsToken));
+    // expiration is checked on each access since it depends on each token
     this.tokenCache =
         CacheBuilder.newBuilder()
-            .maximumSize(CONCURRENT_USERS)
-            .expireAfterWrite(CACHE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
-            .build(CacheLoader.from(this::getOsToken));
+            .ticker(ticker)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build(CacheLoader.asyncReloading(timedCacheLoader, refreshExecutor));
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    GuavaCacheMetrics.monitor(registry, tokenCache, CACHE_NAME);
+    timedCacheLoader.bindTo(registry, CACHE_NAME);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    refreshExecutor.shutdownNow();
   }
 
   /**
@@ -100,8 +186,14 @@ public class OpenshiftUserTokenProvider {
               + getUserDescription(subject));
     }
     try {
-      return tokenCache.get(keycloakToken);
-    } catch (ExecutionException e) {
+      CachedToken token = tokenCache.get(keycloakToken);
+      if (isExpired(token)) {
+        // evicts only this expired token, not a token retrieved concurrently
+        tokenCache.asMap().remove(keycloakToken, token);
+        token = tokenCache.get(keycloakToken);
+      }
+      return token.value;
+    } catch (ExecutionException | UncheckedExecutionException e) {
       throw new InfrastructureException(
           "Could not retrieve OSO token from Keycloak token for user: "
               + getUserDescription(subject),
@@ -109,6 +201,116 @@ public class OpenshiftUserTokenProvider {
     }
   }
 
+  /**
+   * Returns asynchronously the Openshift token corresponding to the keycloak token of the provided
+   * {@link Subject}, without blocking the calling thread.
+   *
+   * <p>Cached tokens are returned in an already completed future. Otherwise, the token is retrieved
+   * on the OkHttp dispatcher, which also runs the non-async dependent stages of the returned
+   * future. Concurrent calls for the same keycloak token share a single retrieval, whose timeout is
+   * the one of the call that started it, and which is cancelled once all the returned futures
+   * waiting for it are cancelled. Retrievals are timed and counted in the cache statistics like the
+   * synchronous ones.
+   *
+   * @param subject subject with user's keycloak token
+   * @param timeout maximum duration of the retrieval, the returned future is completed
+   *     exceptionally when it is exceeded
+   * @param unit unit of {@code timeout}
+   * @return future of the Openshift user token, completed exceptionally with an {@link
+   *     InfrastructureException} when there is no keycloak token in subject or OSO token retrieval
+   *     failed
+   */
+  public CompletableFuture<String> getTokenAsync(Subject subject, long timeout, TimeUnit unit) {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    String keycloakToken;
+    try {
+      checkSubject(subject);
+      keycloakToken = subject.getToken();
+      if (keycloakToken == null) {
+        throw new InfrastructureException(
+            "User Openshift token is needed but cannot be retrieved since there is no Keycloak token for user: "
+                + getUserDescription(subject));
+      }
+    } catch (InfrastructureException e) {
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    CachedToken cachedToken = tokenCache.asMap().get(keycloakToken);
+    if (cachedToken != null) {
+      if (!isExpired(cachedToken)) {
+        // records the hit in the cache statistics, misses are recorded when retrievals complete
+        tokenCache.getIfPresent(keycloakToken);
+        result.complete(cachedToken.value);
+        return result;
+      }
+      // evicts only this expired token, not a token retrieved concurrently
+      tokenCache.asMap().remove(keycloakToken, cachedToken);
+    }
+
+    TokenRetrieval retrieval = joinRetrieval(keycloakToken, timeout, unit);
+    // the callbacks only complete the result or leave the retrieval, and never fail
+    @SuppressWarnings("FutureReturnValueIgnored")
+    CompletableFuture<?> unusedCompletion =
+        retrieval.token.whenComplete(
+            (token, error) -> {
+              if (error == null) {
+                result.complete(token.value);
+              } else {
+                result.completeExceptionally(
+                    new InfrastructureException(
+                        "Could not retrieve OSO token from Keycloak token for user: "
+                            + getUserDescription(subject),
+                        error));
+              }
+            });
+    @SuppressWarnings("FutureReturnValueIgnored")
+    CompletableFuture<?> unusedCancellation =
+        result.whenComplete(
+            (token, error) -> {
+              if (result.isCancelled()) {
+                retrieval.leave();
+              }
+            });
+    return result;
+  }
+
+  /** Returns the retrieval in progress of the given token, or starts a new one. */
+  private TokenRetrieval joinRetrieval(String keycloakToken, long timeout, TimeUnit unit) {
+    while (true) {
+      TokenRetrieval retrieval = retrievals.get(keycloakToken);
+      if (retrieval == null) {
+        TokenRetrieval started = new TokenRetrieval(keycloakToken, timeout, unit);
+        retrieval = retrievals.putIfAbsent(keycloakToken, started);
+        if (retrieval == null) {
+          started.start();
+          return started;
+        }
+      }
+      if (retrieval.join()) {
+        return retrieval;
+      }
+      // all the callers of this retrieval left, so it is being cancelled
+      retrievals.remove(keycloakToken, retrieval);
+    }
+  }
+
+  /**
+   * Returns whether the given token is expired, and schedules its refresh in the background when it
+   * expires soon.
+   */
+  private boolean isExpired(CachedToken token) {
+    long now = ticker.read();
+    if (now - token.expiresAtNanos >= 0) {
+      return true;
+    }
+    if (now - token.refreshAtNanos >= 0) {
+      // no-op when a refresh of this token is already in progress
+      tokenCache.refresh(token.keycloakToken);
+    }
+    return false;
+  }
+
   private void checkSubject(Subject subject) throws InfrastructureException {
     if (subject == null) {
       throw new InfrastructureException("No Subject is found to perform this action");
@@ -123,27 +325,165 @@ public class OpenshiftUserTokenProvider {
     return subject.getUserName() + "(" + subject.getUserId() + ")";
   }
 
-  private String getOsToken(final String keycloakToken) throws RuntimeException {
-    Request request =
-        new Request.Builder()
-            .url(tokenEndpoint)
-            .get()
-            .header("Authorization", "Bearer " + keycloakToken)
-            .build();
-    try (Response response = httpClient.newCall(request).execute()) {
-      // Ignore IDE warning:
-      // body is not null after call of execute() according to javadocs of method body()
-      String body = response.body().string();
-
-      if (!response.isSuccessful()) {
-        throw new RuntimeException(
-            "Could not retrieve OSO token of the user. Response from auth service: " + body);
-      }
-
-      return new JsonParser().parse(body).getAsJsonObject().get("access_token").getAsString();
+  private CachedToken getOsToken(final String keycloakToken) throws RuntimeException {
+    long requestedAt = ticker.read();
+    try (Response response = httpClient.newCall(newTokenRequest(keycloakToken)).execute()) {
+      return readToken(keycloakToken, response, requestedAt);
     } catch (IOException e) {
       throw new RuntimeException(
           "Could not retrieve OSO token from of the user. Error: " + e.getMessage());
     }
   }
+
+  private Request newTokenRequest(String keycloakToken) {
+    return new Request.Builder()
+        .url(tokenEndpoint)
+        .get()
+        .header("Authorization", "Bearer " + keycloakToken)
+        .build();
+  }
+
+  private CachedToken readToken(String keycloakToken, Response response, long requestedAt)
+      throws IOException {
+    // Ignore IDE warning:
+    // body is not null after call of execute() according to javadocs of method body()
+    String body = response.body().string();
+
+    if (!response.isSuccessful()) {
+      throw new RuntimeException(
+          "Could not retrieve OSO token of the user. Response from auth service: " + body);
+    }
+
+    JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+    JsonElement expiresIn = json.get("expires_in");
+    long lifetimeNanos =
+        expiresIn != null && !expiresIn.isJsonNull()
+            ? TimeUnit.SECONDS.toNanos(expiresIn.getAsLong())
+            : defaultLifetimeNanos;
+    return new CachedToken(
+        keycloakToken, json.get("access_token").getAsString(), requestedAt, lifetimeNanos);
+  }
+
+  private static ExecutorService createRefreshExecutor() {
+    // Refreshes that cannot be queued are rejected, and the cached token is kept until the next
+    // access triggers a new refresh or the token expires
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            REFRESH_THREADS,
+            REFRESH_THREADS,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE),
+            new ThreadFactoryBuilder()
+                .setNameFormat("OpenshiftUserTokenRefresher-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Asynchronous retrieval of an OpenShift token, shared by the callers of {@link #getTokenAsync}
+   * waiting for it.
+   */
+  private class TokenRetrieval implements Callback {
+    private final String keycloakToken;
+    private final Call call;
+    private final CompletableFuture<CachedToken> retrieved = new CompletableFuture<>();
+    // completed once the latency of the retrieval is recorded
+    private final CompletableFuture<CachedToken> token = timedCacheLoader.timeAsync(retrieved);
+
+    // the caller who starts the retrieval is waiting for it, and -1 once all the callers left
+    private int waiting = 1;
+    private long requestedAt;
+
+    private TokenRetrieval(String keycloakToken, long timeout, TimeUnit unit) {
+      this.keycloakToken = keycloakToken;
+      this.call = httpClient.newCall(newTokenRequest(keycloakToken));
+      call.timeout().timeout(timeout, unit);
+    }
+
+    private void start() {
+      requestedAt = ticker.read();
+      // removing the retrieval never fails
+      @SuppressWarnings("FutureReturnValueIgnored")
+      CompletableFuture<?> unused =
+          token.whenComplete((value, error) -> retrievals.remove(keycloakToken, this));
+      call.enqueue(this);
+    }
+
+    /** Returns false when the retrieval is cancelled, since all its callers left. */
+    private synchronized boolean join() {
+      if (waiting < 0) {
+        return false;
+      }
+      waiting++;
+      return true;
+    }
+
+    private synchronized boolean isAbandoned() {
+      return waiting < 0;
+    }
+
+    private void leave() {
+      synchronized (this) {
+        if (--waiting > 0 || token.isDone()) {
+          return;
+        }
+        waiting = -1;
+      }
+      retrievals.remove(keycloakToken, this);
+      call.cancel();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+      try (Response r = response) {
+        complete(() -> readToken(keycloakToken, r, requestedAt));
+      }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      if (isAbandoned()) {
+        retrieved.completeExceptionally(e);
+        return;
+      }
+      complete(
+          () -> {
+            throw e;
+          });
+    }
+
+    /**
+     * Completes the retrieval through the cache, so that its result is counted in the cache
+     * statistics, unless a token was retrieved concurrently.
+     */
+    private void complete(Callable<CachedToken> load) {
+      try {
+        retrieved.complete(tokenCache.get(keycloakToken, load));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        retrieved.completeExceptionally(e.getCause());
+      }
+    }
+  }
+
+  /** OpenShift token with the instants, in ticker nanoseconds, of its refresh and expiration. */
+  private class CachedToken {
+    private final String keycloakToken;
+    private final String value;
+    private final long refreshAtNanos;
+    private final long expiresAtNanos;
+
+    private CachedToken(
+        String keycloakToken, String value, long requestedAtNanos, long lifetimeNanos) {
+      this.keycloakToken = keycloakToken;
+      this.value = value;
+      // the lifetime starts when the token is issued, which is before it is received
+      this.expiresAtNanos = requestedAtNanos + lifetimeNanos;
+      // tokens whose lifetime is shorter than the refresh delay are refreshed at half-life
+      this.refreshAtNanos = expiresAtNanos - Math.min(refreshBeforeExpiryNanos, lifetimeNanos / 2);
+    }
+  }
 }
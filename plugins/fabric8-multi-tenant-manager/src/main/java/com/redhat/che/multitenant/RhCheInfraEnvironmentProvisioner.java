@@ -14,12 +14,22 @@ package com.redhat.che.multitenant;
 import static java.lang.String.format;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
 import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
 import io.fabric8.kubernetes.api.model.EnvVar;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -28,6 +38,7 @@ import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.api.workspace.server.spi.provision.env.EnvVarProvider;
 import org.eclipse.che.commons.annotation.Traced;
 import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.commons.subject.Subject;
 import org.eclipse.che.workspace.infrastructure.kubernetes.environment.KubernetesEnvironment.PodData;
 import org.eclipse.che.workspace.infrastructure.kubernetes.namespace.pvc.WorkspaceVolumesStrategy;
@@ -61,6 +72,11 @@ import org.slf4j.Logger;
 /**
  * Adds env vars needed to perform oc login in workspace containers.
  *
+ * <p>The OpenShift token and the tenant data of the user are retrieved concurrently, within {@code
+ * che.fabric8.oc_login.timeout_sec} seconds. The tenant data are retrieved on a bounded executor,
+ * and on the calling thread when it is saturated. If any retrieval fails, no env var is added and
+ * the workspace start continues.
+ *
  * <p>TODO replace with {@link EnvVarProvider} when injection of env vars won't hold workspace start
  * request https://github.com/eclipse/che/issues/8989.
  *
@@ -75,8 +91,13 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
 
   private static final Logger LOG = getLogger(RhCheInfraEnvironmentProvisioner.class);
 
+  private static final int LOOKUP_THREADS = 10;
+  private static final int LOOKUP_QUEUE_SIZE = 100;
+
   private final OpenshiftUserTokenProvider openshiftUserTokenProvider;
   private final TenantDataProvider tenantDataProvider;
+  private final long ocLoginTimeoutNanos;
+  private final ExecutorService lookupExecutor;
   private boolean trustCerts;
   private String wsAgentRoutingTimeout;
 
@@ -110,7 +131,8 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
       DeploymentMetadataProvisioner deploymentMetadataProvisioner,
       OpenshiftTrustedCAProvisioner openshiftTrustedCAProvisioner,
       @Named("che.infra.kubernetes.trust_certs") boolean trustCerts,
-      @Named("che.fabric8.wsagent_routing_timeout") String wsAgentRoutingTimeout) {
+      @Named("che.fabric8.wsagent_routing_timeout") String wsAgentRoutingTimeout,
+      @Named("che.fabric8.oc_login.timeout_sec") long ocLoginTimeoutSec) {
     super(
         pvcEnabled,
         uniqueNamesProvisioner,
@@ -142,6 +164,13 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
     this.tenantDataProvider = tenantDataProvider;
     this.trustCerts = trustCerts;
     this.wsAgentRoutingTimeout = wsAgentRoutingTimeout;
+    this.ocLoginTimeoutNanos = TimeUnit.SECONDS.toNanos(ocLoginTimeoutSec);
+    this.lookupExecutor = createLookupExecutor();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    lookupExecutor.shutdownNow();
   }
 
   @Override
@@ -152,16 +181,32 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
 
     // here we are at a stage of provisioning when we can add to openshift specific entities only
 
-    Map<String, String> envVars = new HashMap<>();
+    Subject subject = EnvironmentContext.getCurrent().getSubject();
+    long deadline = System.nanoTime() + ocLoginTimeoutNanos;
+    // both retrievals are remote calls, they are made concurrently
+    CompletableFuture<String> osoToken =
+        openshiftUserTokenProvider.getTokenAsync(
+            subject, ocLoginTimeoutNanos, TimeUnit.NANOSECONDS);
+    Future<UserCheTenantData> tenantData =
+        lookupExecutor.submit(() -> tenantDataProvider.getUserCheTenantData(subject, "user"));
 
+    Map<String, String> envVars = new HashMap<>();
+    boolean retrieved = true;
     try {
-      Subject subject = EnvironmentContext.getCurrent().getSubject();
-      addTokenEnvVar(envVars, subject);
-      addTenantEnvVars(envVars, subject);
-      injectEnvVars(osEnv, envVars);
+      addTokenEnvVar(envVars, subject, osoToken, deadline);
     } catch (InfrastructureException e) {
-      // oc login injection is not critical - lets continue start of the workspace if failed
       LOG.error(e.getLocalizedMessage());
+      retrieved = false;
+    }
+    try {
+      addTenantEnvVars(envVars, subject, tenantData, deadline);
+    } catch (InfrastructureException e) {
+      LOG.error(e.getLocalizedMessage());
+      retrieved = false;
+    }
+    // oc login injection is not critical - lets continue start of the workspace if failed
+    if (retrieved) {
+      injectEnvVars(osEnv, envVars);
     }
 
     osEnv
@@ -175,10 +220,11 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
             });
   }
 
-  private void addTokenEnvVar(Map<String, String> envVars, Subject subject)
+  private void addTokenEnvVar(
+      Map<String, String> envVars, Subject subject, Future<String> osoTokenFuture, long deadline)
       throws InfrastructureException {
     try {
-      String osoToken = openshiftUserTokenProvider.getToken(subject);
+      String osoToken = await(osoTokenFuture, deadline);
       if (osoToken == null) {
         throw new InfrastructureException(
             "OSO token not found for user " + getUserDescription(subject));
@@ -193,10 +239,14 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
     }
   }
 
-  private void addTenantEnvVars(Map<String, String> envVars, Subject subject)
+  private void addTenantEnvVars(
+      Map<String, String> envVars,
+      Subject subject,
+      Future<UserCheTenantData> tenantDataFuture,
+      long deadline)
       throws InfrastructureException {
     try {
-      UserCheTenantData tenantData = tenantDataProvider.getUserCheTenantData(subject, "user");
+      UserCheTenantData tenantData = await(tenantDataFuture, deadline);
       envVars.put(CLUSTER_VAR, tenantData.getClusterUrl());
       envVars.put(PROJECT_VAR, tenantData.getNamespace());
       envVars.put(TRUST_CERTS_VAR, Boolean.toString(trustCerts));
@@ -208,6 +258,25 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
     }
   }
 
+  /**
+   * Waits for the given future until the deadline, and cancels it when the deadline is exceeded.
+   */
+  private static <T> T await(Future<T> future, long deadline) throws InfrastructureException {
+    try {
+      return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw new InfrastructureException(cause.getMessage(), cause);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new InfrastructureException("Timeout exceeded");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new InfrastructureException("Interrupted");
+    }
+  }
+
   private void injectEnvVars(OpenShiftEnvironment osEnv, Map<String, String> envVars) {
     Collection<PodData> pods = osEnv.getPodsData().values();
     pods.forEach(
@@ -227,4 +296,22 @@ public class RhCheInfraEnvironmentProvisioner extends OpenShiftEnvironmentProvis
   private String getUserDescription(Subject subject) {
     return subject.getUserName() + "(" + subject.getUserId() + ")";
   }
+
+  private static ExecutorService createLookupExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            LOOKUP_THREADS,
+            LOOKUP_THREADS,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(LOOKUP_QUEUE_SIZE),
+            new ThreadFactoryBuilder()
+                .setNameFormat("RhCheOcLoginLookup-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 }
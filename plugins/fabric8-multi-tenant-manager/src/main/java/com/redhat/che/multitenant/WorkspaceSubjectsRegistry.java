@@ -12,21 +12,45 @@
 package com.redhat.che.multitenant;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Provider;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.util.Date;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.eclipse.che.api.core.NotFoundException;
 import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
 import org.eclipse.che.api.core.notification.EventService;
 import org.eclipse.che.api.core.notification.EventSubscriber;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
 import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
 import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.commons.subject.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class allows maintaining a link between a started workspace and the user who started it.
@@ -47,15 +71,72 @@ import org.eclipse.che.commons.subject.Subject;
  * the user connection information are required to have access to the OpenShift cluster / namespace
  * where the workspace has been created.
  *
+ * <p>Subjects are indexed by user ID, and the users by workspace ID, so that looking up the subject
+ * of a user and handling the start or stop of a workspace take constant time. The subject of a user
+ * is kept until their last workspace is stopped.
+ *
+ * <p>No global lock is taken: the workspaces and the subject of a user are only updated within an
+ * atomic computation on the entry of this user, so events of different users never contend, and the
+ * entry of a user is removed atomically with their last workspace. Events of a given workspace are
+ * expected to be delivered in order.
+ *
+ * <p>Subjects are also evicted in the background every {@code
+ * che.fabric8.workspace_subjects.sweep_period_min} minutes: the workspaces that are no longer
+ * active according to {@link WorkspaceRuntimes}, for instance because their STOPPED event was lost,
+ * are unregistered, and the subjects whose token expired are dropped. Whether a workspace is still
+ * active is checked again within the atomic computation that unregisters it, so that a workspace
+ * restarted meanwhile is never unregistered. A subject whose token expired is never returned, even
+ * before it is swept. At most {@code che.fabric8.workspace_subjects.max_users} users are
+ * registered, the workspaces started by additional users are not registered. When Che metrics are
+ * enabled, the numbers of registered users and workspaces are published as {@code
+ * workspace_subjects.users} and {@code workspace_subjects.workspaces} gauges, and the workspaces
+ * not registered because of the maximum number of users are counted in {@code
+ * workspace_subjects.rejected}.
+ *
  * @author David Festal
  * @author Sergii Leshchenko
  */
 @Singleton
-public class WorkspaceSubjectsRegistry implements EventSubscriber<WorkspaceStatusEvent> {
+public class WorkspaceSubjectsRegistry
+    implements EventSubscriber<WorkspaceStatusEvent>, MeterBinder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WorkspaceSubjectsRegistry.class);
+
+  private final Map<String, UserWorkspaces> workspacesByUserId = new ConcurrentHashMap<>();
+  private final Map<String, String> userIdsByWorkspace = new ConcurrentHashMap<>();
+  private final AtomicInteger usersCount = new AtomicInteger();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final Provider<WorkspaceRuntimes> workspaceRuntimesProvider;
+  private final JwtParser jwtParser;
+  private final int maxUsers;
+  private final long sweepPeriodMin;
+  private final Clock clock;
+
+  private ScheduledExecutorService sweeper;
+  private ScheduledFuture<?> sweepTask;
+
+  @Inject
+  public WorkspaceSubjectsRegistry(
+      Provider<WorkspaceRuntimes> workspaceRuntimesProvider,
+      JwtParser jwtParser,
+      @Named("che.fabric8.workspace_subjects.max_users") int maxUsers,
+      @Named("che.fabric8.workspace_subjects.sweep_period_min") long sweepPeriodMin) {
+    this(workspaceRuntimesProvider, jwtParser, maxUsers, sweepPeriodMin, Clock.systemUTC());
+  }
 
-  private final Map<String, Subject> workspaceStarters = new ConcurrentHashMap<>();
-  private final Multimap<String, String> userIdToWorkspaces =
-      Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+  @VisibleForTesting
+  WorkspaceSubjectsRegistry(
+      Provider<WorkspaceRuntimes> workspaceRuntimesProvider,
+      JwtParser jwtParser,
+      int maxUsers,
+      long sweepPeriodMin,
+      Clock clock) {
+    this.workspaceRuntimesProvider = workspaceRuntimesProvider;
+    this.jwtParser = jwtParser;
+    this.maxUsers = maxUsers;
+    this.sweepPeriodMin = sweepPeriodMin;
+    this.clock = clock;
+  }
 
   @VisibleForTesting
   @Inject
@@ -63,12 +144,54 @@ public class WorkspaceSubjectsRegistry implements EventSubscriber<WorkspaceStatu
     eventService.subscribe(this);
   }
 
+  @PostConstruct
+  void start() {
+    if (sweepPeriodMin <= 0) {
+      return;
+    }
+    sweeper =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("WorkspaceSubjectsSweeper-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    sweepTask =
+        sweeper.scheduleWithFixedDelay(
+            this::sweep, sweepPeriodMin, sweepPeriodMin, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (sweeper == null) {
+      return;
+    }
+    sweepTask.cancel(false);
+    sweeper.shutdownNow();
+    sweeper = null;
+    sweepTask = null;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("workspace_subjects.users", usersCount, AtomicInteger::get)
+        .description("The number of users whose subject is registered")
+        .register(registry);
+    Gauge.builder("workspace_subjects.workspaces", userIdsByWorkspace, Map::size)
+        .description("The number of workspaces whose starter is registered")
+        .register(registry);
+    FunctionCounter.builder("workspace_subjects.rejected", rejectedCount, AtomicLong::get)
+        .description(
+            "The workspaces whose starter is not registered since the maximum number of "
+                + "registered users is reached")
+        .register(registry);
+  }
+
   @Override
   public void onEvent(WorkspaceStatusEvent event) {
     String workspaceId = event.getWorkspaceId();
     if (WorkspaceStatus.STOPPED.equals(event.getStatus())) {
-      while (userIdToWorkspaces.values().remove(workspaceId)) {}
-      workspaceStarters.remove(workspaceId);
+      unregister(workspaceId, id -> true);
     }
 
     if (WorkspaceStatus.STARTING.equals(event.getStatus())) {
@@ -80,42 +203,186 @@ public class WorkspaceSubjectsRegistry implements EventSubscriber<WorkspaceStatu
                 + " is being started by the 'Anonymous' user.\n"
                 + "This shouldn't happen, and workspaces should always be created by a real user.");
       }
-      userIdToWorkspaces.put(subject.getUserId(), workspaceId);
-      updateSubject(subject);
+      register(workspaceId, subject);
     }
   }
 
   /**
    * Returns cached subject for a user with the specified ID.
    *
-   * @throws NotFoundException if subject for a user with specified ID not found in cache
+   * @throws NotFoundException if subject for a user with specified ID not found in cache, or if its
+   *     token expired
    */
   public Subject getSubject(String userId) throws NotFoundException {
-    Optional<Subject> subjectOpt =
-        workspaceStarters.values().stream().filter(s -> s.getUserId().equals(userId)).findAny();
-    if (!subjectOpt.isPresent()) {
+    UserWorkspaces workspaces = workspacesByUserId.get(userId);
+    ExpiringSubject subject = workspaces != null ? workspaces.subject : null;
+    if (subject == null || subject.isExpiredAt(clock.millis())) {
       throw new NotFoundException("There is no cached subject with user id '" + userId + '\'');
     }
-    return subjectOpt.get();
+    return subject.subject;
+  }
+
+  /** Returns the number of workspaces whose starter is registered. */
+  @VisibleForTesting
+  int getWorkspacesCount() {
+    return userIdsByWorkspace.size();
+  }
+
+  /** Returns the number of users who have registered workspaces. */
+  @VisibleForTesting
+  int getUsersCount() {
+    return usersCount.get();
+  }
+
+  /**
+   * Unregisters the workspaces that are not active anymore, and drops the subjects whose token
+   * expired.
+   */
+  @VisibleForTesting
+  void sweep() {
+    WorkspaceRuntimes workspaceRuntimes = workspaceRuntimesProvider.get();
+    // the active workspaces are only listed to skip most of the registered ones, the others are
+    // checked again atomically with their unregistration, since they may have been restarted
+    Set<String> active = workspaceRuntimes.getActive();
+    int inactive = 0;
+    for (String workspaceId : userIdsByWorkspace.keySet()) {
+      if (!active.contains(workspaceId)
+          && unregister(workspaceId, id -> !workspaceRuntimes.hasRuntime(id))) {
+        inactive++;
+      }
+    }
+
+    long now = clock.millis();
+    int expired = 0;
+    for (Map.Entry<String, UserWorkspaces> entry : workspacesByUserId.entrySet()) {
+      ExpiringSubject subject = entry.getValue().subject;
+      if (subject != null && subject.isExpiredAt(now)) {
+        workspacesByUserId.computeIfPresent(
+            entry.getKey(),
+            (userId, workspaces) -> {
+              if (workspaces.subject == subject) {
+                workspaces.subject = null;
+              }
+              return workspaces;
+            });
+        expired++;
+      }
+    }
+    if (inactive > 0 || expired > 0) {
+      LOG.info(
+          "Unregistered {} inactive workspaces and dropped {} expired subjects", inactive, expired);
+    }
+  }
+
+  private void register(String workspaceId, Subject subject) {
+    String userId = subject.getUserId();
+    UserWorkspaces registered =
+        workspacesByUserId.compute(
+            userId,
+            (id, workspaces) -> {
+              if (workspaces == null) {
+                if (usersCount.incrementAndGet() > maxUsers) {
+                  usersCount.decrementAndGet();
+                  return null;
+                }
+                workspaces = new UserWorkspaces();
+              }
+              workspaces.workspaceIds.add(workspaceId);
+              userIdsByWorkspace.put(workspaceId, userId);
+              updateSubject(workspaces, subject);
+              return workspaces;
+            });
+    if (registered == null) {
+      rejectedCount.incrementAndGet();
+      LOG.warn(
+          "Subject of user '{}' who started workspace '{}' is not registered since "
+              + "the maximum number of registered users ({}) is reached",
+          userId,
+          workspaceId,
+          maxUsers);
+    }
+  }
+
+  /**
+   * Unregisters the given workspace if it matches the given condition, which is tested within the
+   * atomic computation on the entry of the user who started it.
+   *
+   * @return whether the workspace was unregistered
+   */
+  private boolean unregister(String workspaceId, Predicate<String> condition) {
+    String userId = userIdsByWorkspace.get(workspaceId);
+    if (userId == null) {
+      return false;
+    }
+    AtomicBoolean unregistered = new AtomicBoolean();
+    workspacesByUserId.computeIfPresent(
+        userId,
+        (id, workspaces) -> {
+          if (!workspaces.workspaceIds.contains(workspaceId) || !condition.test(workspaceId)) {
+            return workspaces;
+          }
+          workspaces.workspaceIds.remove(workspaceId);
+          userIdsByWorkspace.remove(workspaceId, userId);
+          unregistered.set(true);
+          if (workspaces.workspaceIds.isEmpty()) {
+            usersCount.decrementAndGet();
+            return null;
+          }
+          return workspaces;
+        });
+    return unregistered.get();
   }
 
   /*
-   * If some workspaces have been started by the userId contained
-   * in this <code>Subject</code>, then the subject (with
-   * the userName and token) is updated in the workspace-to-subject
-   * cache for all these workspaces.
+   * The subject (with the userName and token) of the user is
+   * updated for all the workspaces they started, unless it
+   * holds a machine token.
    */
-  private void updateSubject(Subject subject) {
-    String token = subject != null ? subject.getToken() : null;
+  private void updateSubject(UserWorkspaces workspaces, Subject subject) {
+    String token = subject.getToken();
     if (token == null || token.startsWith("machine")) {
       // We are not interested in machine tokens here, but in
       // having the up-to-date token used by the user to connect
       // to the front-end application and create the workspace
       return;
     }
-    String userId = subject.getUserId();
-    for (String workspaceId : userIdToWorkspaces.get(userId)) {
-      workspaceStarters.put(workspaceId, subject);
+    workspaces.subject = new ExpiringSubject(subject, getExpirationMillis(token));
+  }
+
+  private long getExpirationMillis(String token) {
+    Claims claims;
+    try {
+      claims = jwtParser.parseClaimsJws(token).getBody();
+    } catch (ExpiredJwtException e) {
+      claims = e.getClaims();
+    } catch (JwtException | IllegalArgumentException e) {
+      // not a token whose expiration can be known
+      return Long.MAX_VALUE;
+    }
+    Date expiration = claims.getExpiration();
+    return expiration != null ? expiration.getTime() : Long.MAX_VALUE;
+  }
+
+  /**
+   * Workspaces started by a user along with their subject, only modified within an atomic
+   * computation on the entry of the user.
+   */
+  private static class UserWorkspaces {
+    private final Set<String> workspaceIds = ConcurrentHashMap.newKeySet();
+    private volatile ExpiringSubject subject;
+  }
+
+  private static class ExpiringSubject {
+    private final Subject subject;
+    private final long expiresAtMillis;
+
+    private ExpiringSubject(Subject subject, long expiresAtMillis) {
+      this.subject = subject;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    private boolean isExpiredAt(long millis) {
+      return millis >= expiresAtMillis;
     }
   }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.metrics;
+
+import com.google.common.cache.CacheLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cache loader that records the latency of the loads of its delegate in a {@code
+ * cache.load.latency} histogram, tagged with the cache name.
+ *
+ * <p>Guava cache statistics only provide the total load time, which is not enough to see the
+ * latency distribution of the remote calls made by the loaders. Nothing is recorded until the
+ * loader is bound to a meter registry, since the registry only exists when Che metrics are enabled.
+ */
+public class TimedCacheLoader<K, V> extends CacheLoader<K, V> {
+
+  private final CacheLoader<K, V> delegate;
+
+  private volatile Timer timer;
+
+  public TimedCacheLoader(CacheLoader<K, V> delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Starts recording load latencies in the given registry. */
+  public void bindTo(MeterRegistry registry, String cacheName) {
+    timer =
+        Timer.builder("cache.load.latency")
+            .description("The latency of the loads of new values in the cache")
+            .tag("cache", cacheName)
+            .publishPercentileHistogram()
+            .register(registry);
+  }
+
+  @Override
+  public V load(K key) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return delegate.load(key);
+    } finally {
+      record(start);
+    }
+  }
+
+  /**
+   * Records the latency of the given asynchronous load, made without the delegate loader, once it
+   * completes.
+   *
+   * @return future completed like the given one, once the latency is recorded
+   */
+  public <T> CompletableFuture<T> timeAsync(CompletableFuture<T> load) {
+    long start = System.nanoTime();
+    CompletableFuture<T> timed = new CompletableFuture<>();
+    // the callback propagates the outcome of the load to the returned future, and never fails
+    @SuppressWarnings("FutureReturnValueIgnored")
+    CompletableFuture<?> unused =
+        load.whenComplete(
+            (value, error) -> {
+              record(start);
+              if (error != null) {
+                timed.completeExceptionally(error);
+              } else {
+                timed.complete(value);
+              }
+            });
+    return timed;
+  }
+
+  private void record(long start) {
+    Timer timer = this.timer;
+    if (timer != null) {
+      timer.record(Duration.ofNanos(System.nanoTime() - start));
+    }
+  }
+}
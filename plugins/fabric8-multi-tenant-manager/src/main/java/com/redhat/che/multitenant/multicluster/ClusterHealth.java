@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+/**
+ * Summary of the health of an OpenShift API endpoint, tracked by the {@link ClusterHealthTracker}.
+ */
+public class ClusterHealth {
+  private final String cluster;
+  private final long requests;
+  private final long errors;
+  private final int inFlight;
+  private final long windowRequests;
+  private final double windowErrorRate;
+  private final double rttP50Millis;
+  private final double rttP95Millis;
+  private final double rttP99Millis;
+  private final boolean ejected;
+
+  public ClusterHealth(
+      String cluster,
+      long requests,
+      long errors,
+      int inFlight,
+      long windowRequests,
+      double windowErrorRate,
+      double rttP50Millis,
+      double rttP95Millis,
+      double rttP99Millis,
+      boolean ejected) {
+    this.cluster = cluster;
+    this.requests = requests;
+    this.errors = errors;
+    this.inFlight = inFlight;
+    this.windowRequests = windowRequests;
+    this.windowErrorRate = windowErrorRate;
+    this.rttP50Millis = rttP50Millis;
+    this.rttP95Millis = rttP95Millis;
+    this.rttP99Millis = rttP99Millis;
+    this.ejected = ejected;
+  }
+
+  /** Returns the origin of the endpoint. */
+  public String getCluster() {
+    return cluster;
+  }
+
+  /** Returns the number of requests completed since the start. */
+  public long getRequests() {
+    return requests;
+  }
+
+  /** Returns the number of failed requests since the start. */
+  public long getErrors() {
+    return errors;
+  }
+
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /** Returns the number of requests completed in the current window. */
+  public long getWindowRequests() {
+    return windowRequests;
+  }
+
+  /** Returns the ratio of the requests completed in the current window that failed. */
+  public double getWindowErrorRate() {
+    return windowErrorRate;
+  }
+
+  public double getRttP50Millis() {
+    return rttP50Millis;
+  }
+
+  public double getRttP95Millis() {
+    return rttP95Millis;
+  }
+
+  public double getRttP99Millis() {
+    return rttP99Millis;
+  }
+
+  /** Returns whether requests are sent through the proxy instead of directly to the cluster. */
+  public boolean isEjected() {
+    return ejected;
+  }
+}
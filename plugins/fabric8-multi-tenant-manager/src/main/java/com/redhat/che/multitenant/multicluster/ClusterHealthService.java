@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+import com.google.gson.Gson;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.eclipse.che.api.core.ForbiddenException;
+import org.eclipse.che.api.core.rest.Service;
+import org.eclipse.che.commons.env.EnvironmentContext;
+
+/**
+ * Summary of the health of the OpenShift API endpoints tracked by the {@link ClusterHealthTracker},
+ * available to the system administrators.
+ */
+@Path("/fabric8-cluster-health")
+public class ClusterHealthService extends Service {
+  private static final Gson GSON = new Gson();
+
+  private final ClusterHealthTracker clusterHealthTracker;
+
+  @Inject
+  public ClusterHealthService(ClusterHealthTracker clusterHealthTracker) {
+    this.clusterHealthTracker = clusterHealthTracker;
+  }
+
+  @GET
+  @Produces(APPLICATION_JSON)
+  public String getHealth() throws ForbiddenException {
+    EnvironmentContext.getCurrent().getSubject().checkPermission("system", null, "manageSystem");
+    return GSON.toJson(clusterHealthTracker.getHealth());
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import static java.lang.String.format;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Response;
+
+/**
+ * Tracks the health of the OpenShift API endpoints that the clients created by the {@link
+ * com.redhat.che.multitenant.Fabric8OpenShiftClientFactory} send requests to, that is the clusters
+ * of the tenants when requests are routed to them directly, and the {@link
+ * MultiClusterOpenShiftProxy} otherwise. Endpoints are identified by their origin.
+ *
+ * <p>The latency, errors and in-flight requests of each endpoint are recorded in the {@code
+ * openshift_client.requests}, {@code openshift_client.errors} and {@code
+ * openshift_client.in_flight} meters, tagged with the endpoint. Requests failing with an I/O error
+ * or answered with a server error are counted as errors, while requests cancelled by the clients
+ * are not recorded. The latency of a request is measured until its response headers are received,
+ * so that streamed responses, such as the events of watches or the logs of containers, are not in
+ * flight for their whole lifetime. Each request of a call, e.g. the authenticated retry of a
+ * challenged request, is recorded. Web socket calls are not observed, since OkHttp does not notify
+ * their events.
+ *
+ * <p>When {@code che.fabric8.multicluster.outlier_ejection.enabled} is set, a cluster whose error
+ * rate over a window of {@code che.fabric8.multicluster.health.window_sec} seconds reaches {@code
+ * che.fabric8.multicluster.outlier_ejection.error_rate} is ejected from the {@link
+ * DirectClusterRouting} for {@code che.fabric8.multicluster.outlier_ejection.period_sec} seconds.
+ */
+@Singleton
+public class ClusterHealthTracker implements MeterBinder {
+
+  private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+  private final DirectClusterRouting directClusterRouting;
+  private final long windowNanos;
+  private final boolean outlierEjection;
+  private final double ejectionErrorRate;
+  private final long ejectionMinRequests;
+  private final long ejectionPeriodSec;
+  private final Ticker ticker;
+  // the local registry keeps the meters available for the summaries when Che metrics are disabled
+  private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
+  private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Call, CallState> calls =
+      CacheBuilder.newBuilder().weakKeys().<Call, CallState>build().asMap();
+
+  @Inject
+  public ClusterHealthTracker(
+      DirectClusterRouting directClusterRouting,
+      @Named("che.fabric8.multicluster.health.window_sec") long windowSec,
+      @Named("che.fabric8.multicluster.outlier_ejection.enabled") boolean outlierEjection,
+      @Named("che.fabric8.multicluster.outlier_ejection.error_rate") double ejectionErrorRate,
+      @Named("che.fabric8.multicluster.outlier_ejection.min_requests") long ejectionMinRequests,
+      @Named("che.fabric8.multicluster.outlier_ejection.period_sec") long ejectionPeriodSec) {
+    this(
+        directClusterRouting,
+        windowSec,
+        outlierEjection,
+        ejectionErrorRate,
+        ejectionMinRequests,
+        ejectionPeriodSec,
+        Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ClusterHealthTracker(
+      DirectClusterRouting directClusterRouting,
+      long windowSec,
+      boolean outlierEjection,
+      double ejectionErrorRate,
+      long ejectionMinRequests,
+      long ejectionPeriodSec,
+      Ticker ticker) {
+    this.directClusterRouting = directClusterRouting;
+    this.windowNanos = TimeUnit.SECONDS.toNanos(windowSec);
+    this.outlierEjection = outlierEjection;
+    this.ejectionErrorRate = ejectionErrorRate;
+    this.ejectionMinRequests = ejectionMinRequests;
+    this.ejectionPeriodSec = ejectionPeriodSec;
+    this.ticker = ticker;
+    meters.add(new SimpleMeterRegistry());
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    meters.add(registry);
+  }
+
+  /**
+   * Returns an event listener that tracks the requests of the HTTP clients it is set on, and
+   * forwards all the events to the given one.
+   */
+  public EventListener tracking(EventListener delegate) {
+    return new TrackingListener(delegate);
+  }
+
+  /** Returns the health of the endpoints that requests were sent to, sorted by endpoint. */
+  public List<ClusterHealth> getHealth() {
+    return endpoints
+        .values()
+        .stream()
+        .map(Endpoint::getHealth)
+        .sorted(Comparator.comparing(ClusterHealth::getCluster))
+        .collect(Collectors.toList());
+  }
+
+  private Endpoint getEndpoint(String origin) {
+    return endpoints.computeIfAbsent(origin, Endpoint::new);
+  }
+
+  private class TrackingListener extends ForwardingEventListener {
+    private TrackingListener(EventListener delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public void callStart(Call call) {
+      super.callStart(call);
+      Endpoint endpoint = getEndpoint(DirectClusterRouting.getOrigin(call.request().url()));
+      CallState state = new CallState(endpoint);
+      calls.put(call, state);
+      // the first request includes the connection to the endpoint
+      state.send();
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+      super.requestHeadersStart(call);
+      CallState state = calls.get(call);
+      if (state != null && !state.waiting) {
+        state.send();
+      }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      super.responseHeadersEnd(call, response);
+      CallState state = calls.get(call);
+      if (state != null && state.waiting) {
+        state.receive();
+        state.endpoint.record(ticker.read() - state.sentNanos, response.code() >= 500);
+      }
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      super.callEnd(call);
+      CallState state = calls.remove(call);
+      // the call may be answered without request, e.g. by an interceptor
+      if (state != null && state.waiting) {
+        state.receive();
+      }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      super.callFailed(call, ioe);
+      CallState state = calls.remove(call);
+      // failures of streamed responses follow the recorded response headers
+      if (state == null || !state.waiting) {
+        return;
+      }
+      state.receive();
+      if (!isCanceled(call, ioe)) {
+        state.endpoint.record(ticker.read() - state.sentNanos, true);
+      }
+    }
+  }
+
+  /** State of a call, whose events are notified sequentially. */
+  private class CallState {
+    private final Endpoint endpoint;
+    private volatile boolean waiting;
+    private volatile long sentNanos;
+
+    private CallState(Endpoint endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    private void send() {
+      waiting = true;
+      sentNanos = ticker.read();
+      endpoint.inFlight.incrementAndGet();
+    }
+
+    private void receive() {
+      waiting = false;
+      endpoint.inFlight.decrementAndGet();
+    }
+  }
+
+  private class Endpoint {
+    private final String origin;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Timer requests;
+    private final Counter errors;
+
+    private long windowStartNanos;
+    private long windowRequests;
+    private long windowErrors;
+
+    private Endpoint(String origin) {
+      this.origin = origin;
+      this.requests =
+          Timer.builder("openshift_client.requests")
+              .description("The latency of the requests of the OpenShift clients")
+              .tag("cluster", origin)
+              .publishPercentiles(PERCENTILES)
+              .publishPercentileHistogram()
+              .register(meters);
+      this.errors =
+          Counter.builder("openshift_client.errors")
+              .description("The requests of the OpenShift clients that failed")
+              .tag("cluster", origin)
+              .register(meters);
+      Gauge.builder("openshift_client.in_flight", inFlight, AtomicInteger::get)
+          .description("The requests of the OpenShift clients waiting for a response")
+          .tag("cluster", origin)
+          .register(meters);
+      this.windowStartNanos = ticker.read();
+    }
+
+    private void record(long durationNanos, boolean error) {
+      requests.record(Duration.ofNanos(durationNanos));
+      if (error) {
+        errors.increment();
+      }
+      String ejectionReason = recordInWindow(error);
+      if (ejectionReason != null) {
+        directClusterRouting.eject(origin, ejectionPeriodSec, TimeUnit.SECONDS, ejectionReason);
+      }
+    }
+
+    /** Returns the reason to eject the cluster, if the request made it an outlier. */
+    private synchronized String recordInWindow(boolean error) {
+      rollWindow();
+      windowRequests++;
+      if (error) {
+        windowErrors++;
+      }
+      if (!outlierEjection
+          || windowRequests < ejectionMinRequests
+          || getWindowErrorRate() < ejectionErrorRate) {
+        return null;
+      }
+      String reason = format("%d of the last %d requests failed", windowErrors, windowRequests);
+      // the requests sent during the ejection are counted again from scratch
+      windowStartNanos = ticker.read();
+      windowRequests = 0;
+      windowErrors = 0;
+      return reason;
+    }
+
+    private void rollWindow() {
+      long now = ticker.read();
+      if (now - windowStartNanos >= windowNanos) {
+        windowStartNanos = now;
+        windowRequests = 0;
+        windowErrors = 0;
+      }
+    }
+
+    private double getWindowErrorRate() {
+      return windowRequests == 0 ? 0 : (double) windowErrors / windowRequests;
+    }
+
+    private ClusterHealth getHealth() {
+      double[] rttMillis = new double[PERCENTILES.length];
+      for (ValueAtPercentile value : requests.takeSnapshot().percentileValues()) {
+        for (int i = 0; i < PERCENTILES.length; i++) {
+          if (value.percentile() == PERCENTILES[i]) {
+            rttMillis[i] = value.value(TimeUnit.MILLISECONDS);
+          }
+        }
+      }
+      long requestsInWindow;
+      double errorRate;
+      synchronized (this) {
+        rollWindow();
+        requestsInWindow = windowRequests;
+        errorRate = getWindowErrorRate();
+      }
+      return new ClusterHealth(
+          origin,
+          requests.count(),
+          (long) errors.count(),
+          inFlight.get(),
+          requestsInWindow,
+          errorRate,
+          rttMillis[0],
+          rttMillis[1],
+          rttMillis[2],
+          directClusterRouting.isFallingBack(origin));
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+import org.eclipse.che.commons.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routing of the requests of the OpenShift clients directly to the clusters of the tenants, instead
+ * of through the {@link MultiClusterOpenShiftProxy}.
+ *
+ * <p>When {@code che.fabric8.multicluster.direct_routing.enabled} is set, the clusters that
+ * requests are routed to directly are tracked by their origin. When a request sent directly to a
+ * cluster fails, or is answered with a gateway or unavailability error, the requests to this
+ * cluster are routed through the proxy again for {@code
+ * che.fabric8.multicluster.direct_routing.fallback_period_sec} seconds. Calls cancelled by the
+ * clients, such as closed watches, are not failures, unlike calls that time out. Clusters can also
+ * be ejected for longer periods, as outliers detected by the {@link ClusterHealthTracker}.
+ */
+@Singleton
+public class DirectClusterRouting {
+  private static final Logger LOG = LoggerFactory.getLogger(DirectClusterRouting.class);
+
+  private final boolean enabled;
+  private final long fallbackPeriodNanos;
+  private final Ticker ticker;
+  private final ConcurrentMap<String, Cluster> clusters = new ConcurrentHashMap<>();
+
+  @Inject
+  public DirectClusterRouting(
+      @Named("che.fabric8.multicluster.direct_routing.enabled") boolean enabled,
+      @Named("che.fabric8.multicluster.direct_routing.fallback_period_sec")
+          long fallbackPeriodSec) {
+    this(enabled, fallbackPeriodSec, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  DirectClusterRouting(boolean enabled, long fallbackPeriodSec, Ticker ticker) {
+    this.enabled = enabled;
+    this.fallbackPeriodNanos = TimeUnit.SECONDS.toNanos(fallbackPeriodSec);
+    this.ticker = ticker;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns whether requests can be sent directly to the given cluster, that is when direct routing
+   * is enabled and no request sent directly to this cluster failed recently.
+   */
+  public boolean canRouteDirectly(@Nullable String clusterUrl) {
+    if (!enabled) {
+      return false;
+    }
+    String origin = getOrigin(clusterUrl);
+    if (origin == null) {
+      return false;
+    }
+    return !clusters.computeIfAbsent(origin, o -> new Cluster()).isFallingBack();
+  }
+
+  /** Returns whether the given URL belongs to a cluster that requests are routed to directly. */
+  public boolean isRoutedDirectly(@Nullable String url) {
+    return enabled && getCluster(url) != null;
+  }
+
+  /**
+   * Returns whether the given URL belongs to a cluster that requests are routed to directly, but
+   * which should be reached through the proxy since a request sent directly to it failed recently.
+   */
+  public boolean isFallingBack(@Nullable String url) {
+    Cluster cluster = getCluster(url);
+    return cluster != null && cluster.isFallingBack();
+  }
+
+  /**
+   * Routes the requests to the given cluster through the proxy for the given period, unless they
+   * already are for longer. Clusters that requests are not routed to directly are ignored.
+   *
+   * @return whether requests were routed directly to the cluster
+   */
+  public boolean eject(String clusterUrl, long period, TimeUnit unit, String reason) {
+    Cluster cluster = enabled ? getCluster(clusterUrl) : null;
+    if (cluster == null) {
+      return false;
+    }
+    LOG.warn(
+        "Cluster '{}' is ejected from direct routing for {} seconds: {}",
+        getOrigin(clusterUrl),
+        unit.toSeconds(period),
+        reason);
+    fallBack(cluster, unit.toNanos(period));
+    return true;
+  }
+
+  /**
+   * Returns an event listener that reports the failures of the requests sent directly to clusters
+   * and forwards all the events to the given one. Requests to other hosts are not tracked.
+   */
+  public EventListener reportingFailures(EventListener delegate) {
+    return new FailureReporter(delegate);
+  }
+
+  private void reportFailure(String origin, Cluster cluster, String reason) {
+    if (!cluster.isFallingBack()) {
+      LOG.warn(
+          "Request sent directly to cluster '{}' failed: {}. Requests to this cluster are sent "
+              + "through the multicluster proxy for {} seconds",
+          origin,
+          reason,
+          TimeUnit.NANOSECONDS.toSeconds(fallbackPeriodNanos));
+    }
+    fallBack(cluster, fallbackPeriodNanos);
+  }
+
+  private void fallBack(Cluster cluster, long periodNanos) {
+    long endNanos = ticker.read() + periodNanos;
+    if (!cluster.isFallingBack() || endNanos - cluster.fallbackEndNanos > 0) {
+      cluster.fallbackEndNanos = endNanos;
+    }
+    cluster.fallingBack = true;
+  }
+
+  private Cluster getCluster(@Nullable String url) {
+    String origin = getOrigin(url);
+    return origin != null ? clusters.get(origin) : null;
+  }
+
+  @Nullable
+  private static String getOrigin(@Nullable String url) {
+    HttpUrl httpUrl = url != null ? HttpUrl.parse(url) : null;
+    return httpUrl != null ? getOrigin(httpUrl) : null;
+  }
+
+  static String getOrigin(HttpUrl url) {
+    return url.scheme() + "://" + url.host() + ":" + url.port();
+  }
+
+  private static boolean isUnavailable(int code) {
+    return code == 502 || code == 503 || code == 504;
+  }
+
+  private class Cluster {
+    private volatile boolean fallingBack;
+    private volatile long fallbackEndNanos;
+
+    private boolean isFallingBack() {
+      return fallingBack && ticker.read() - fallbackEndNanos < 0;
+    }
+  }
+
+  private class FailureReporter extends ForwardingEventListener {
+    private FailureReporter(EventListener delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      super.responseHeadersEnd(call, response);
+      if (isUnavailable(response.code())) {
+        report(response.request().url(), "HTTP " + response.code());
+      }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      super.callFailed(call, ioe);
+      if (!isCanceled(call, ioe)) {
+        report(call.request().url(), ioe.toString());
+      }
+    }
+
+    private void report(HttpUrl url, String reason) {
+      if (!enabled) {
+        return;
+      }
+      String origin = getOrigin(url);
+      Cluster cluster = clusters.get(origin);
+      if (cluster != null) {
+        reportFailure(origin, cluster, reason);
+      }
+    }
+  }
+}
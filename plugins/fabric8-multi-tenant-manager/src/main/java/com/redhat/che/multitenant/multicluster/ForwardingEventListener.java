@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Event listener that forwards all the events to another one.
+ *
+ * <p>The OpenShift clients replace the interceptors of the HTTP clients they are built on, while
+ * their event listener is kept, so the requests of all the clients are observed by wrapping the
+ * event listener of the base HTTP client into subclasses of this one.
+ */
+abstract class ForwardingEventListener extends EventListener {
+
+  private final EventListener delegate;
+
+  ForwardingEventListener(EventListener delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Returns whether the call failed since it was cancelled by the client, e.g. when a watch is
+   * closed, rather than because of the endpoint.
+   */
+  static boolean isCanceled(Call call, IOException ioe) {
+    // timed out calls are cancelled as well, but fail with an interrupted I/O error
+    return call.isCanceled() && !(ioe instanceof InterruptedIOException);
+  }
+
+  @Override
+  public void callStart(Call call) {
+    delegate.callStart(call);
+  }
+
+  @Override
+  public void dnsStart(Call call, String domainName) {
+    delegate.dnsStart(call, domainName);
+  }
+
+  @Override
+  public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+    delegate.dnsEnd(call, domainName, inetAddressList);
+  }
+
+  @Override
+  public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    delegate.connectStart(call, inetSocketAddress, proxy);
+  }
+
+  @Override
+  public void secureConnectStart(Call call) {
+    delegate.secureConnectStart(call);
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, Handshake handshake) {
+    delegate.secureConnectEnd(call, handshake);
+  }
+
+  @Override
+  public void connectEnd(
+      Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    delegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+  }
+
+  @Override
+  public void connectFailed(
+      Call call,
+      InetSocketAddress inetSocketAddress,
+      Proxy proxy,
+      Protocol protocol,
+      IOException ioe) {
+    delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    delegate.connectionAcquired(call, connection);
+  }
+
+  @Override
+  public void connectionReleased(Call call, Connection connection) {
+    delegate.connectionReleased(call, connection);
+  }
+
+  @Override
+  public void requestHeadersStart(Call call) {
+    delegate.requestHeadersStart(call);
+  }
+
+  @Override
+  public void requestHeadersEnd(Call call, Request request) {
+    delegate.requestHeadersEnd(call, request);
+  }
+
+  @Override
+  public void requestBodyStart(Call call) {
+    delegate.requestBodyStart(call);
+  }
+
+  @Override
+  public void requestBodyEnd(Call call, long byteCount) {
+    delegate.requestBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void responseHeadersStart(Call call) {
+    delegate.responseHeadersStart(call);
+  }
+
+  @Override
+  public void responseHeadersEnd(Call call, Response response) {
+    delegate.responseHeadersEnd(call, response);
+  }
+
+  @Override
+  public void responseBodyStart(Call call) {
+    delegate.responseBodyStart(call);
+  }
+
+  @Override
+  public void responseBodyEnd(Call call, long byteCount) {
+    delegate.responseBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    delegate.callEnd(call);
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    delegate.callFailed(call, ioe);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Capacity state of the OpenShift clusters, indexed by cluster URL.
+ *
+ * <p>Cached user tenant data can be several minutes old, so their cluster capacity flag is not used
+ * to decide whether a workspace can be started. Instead, every retrieval of user tenant data
+ * updates the capacity of the clusters of the user in this index, so that the capacity observed for
+ * any user applies to all the users of the same cluster.
+ *
+ * <p>When the capacity of a cluster was observed more than {@code
+ * che.fabric8.cluster_capacity.ttl_sec} seconds ago, it is refreshed in the background with the
+ * token of the user who requests it, and the last observed capacity is returned meanwhile. At most
+ * one refresh per cluster is in progress at a time. Refreshes reload the tenant data of this user
+ * in the cache of the {@link TenantDataProvider}, so that they are timed and guarded against
+ * failures like any other retrieval, and the retrieved data are not wasted. A failed refresh is
+ * retried with an exponential backoff, up to the TTL, and once the last observation is older than
+ * {@code che.fabric8.cluster_capacity.max_age_sec} seconds, the capacity flag of the tenant data is
+ * used again until the next successful observation.
+ */
+@Singleton
+public class ClusterCapacityIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterCapacityIndex.class);
+
+  private static final int REFRESH_THREADS = 2;
+  private static final int REFRESH_QUEUE_SIZE = 100;
+  private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long ttlNanos;
+  private final long maxAgeNanos;
+  private final Ticker ticker;
+  private final ExecutorService refreshExecutor;
+  private final Map<String, ClusterCapacity> capacityByClusterUrl = new ConcurrentHashMap<>();
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+  private volatile TenantDataReloader reloader;
+
+  @Inject
+  public ClusterCapacityIndex(
+      @Named("che.fabric8.cluster_capacity.ttl_sec") long ttlSec,
+      @Named("che.fabric8.cluster_capacity.max_age_sec") long maxAgeSec) {
+    this(ttlSec, maxAgeSec, Ticker.systemTicker(), createRefreshExecutor());
+  }
+
+  @VisibleForTesting
+  ClusterCapacityIndex(
+      long ttlSec, long maxAgeSec, Ticker ticker, ExecutorService refreshExecutor) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSec);
+    this.maxAgeNanos = TimeUnit.SECONDS.toNanos(maxAgeSec);
+    this.ticker = ticker;
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  /**
+   * Sets the reloader used to refresh the capacity of the clusters. It is expected to record the
+   * reloaded tenant data in this index, see {@link #recording(CacheLoader)}. Until it is set, the
+   * capacity of the clusters is only updated by the retrievals of tenant data.
+   */
+  void refreshWith(TenantDataReloader reloader) {
+    this.reloader = reloader;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  /**
+   * Returns whether the capacity of the cluster of the given tenant data is exhausted.
+   *
+   * @param tenantData tenant data of the user, their capacity flag is only used when the capacity
+   *     of their cluster has never been observed, or not for too long
+   * @param keycloakToken token of the user, used to refresh the capacity of the cluster when the
+   *     last observation is too old
+   */
+  public boolean isCapacityExhausted(UserCheTenantData tenantData, String keycloakToken) {
+    String clusterUrl = tenantData.getClusterUrl();
+    ClusterCapacity capacity = capacityByClusterUrl.get(clusterUrl);
+    if (capacity == null) {
+      return tenantData.isClusterCapacityExhausted();
+    }
+    long now = ticker.read();
+    if (now - capacity.checkedAtNanos > ttlNanos
+        && now - capacity.nextRefreshNanos >= 0
+        && keycloakToken != null) {
+      scheduleRefresh(clusterUrl, keycloakToken);
+    }
+    if (now - capacity.checkedAtNanos > maxAgeNanos) {
+      return tenantData.isClusterCapacityExhausted();
+    }
+    return capacity.exhausted;
+  }
+
+  /**
+   * Returns a loader that records in this index the capacity of the clusters of the tenant data
+   * loaded by the given loader.
+   */
+  CacheLoader<TenantDataCacheKey, UserTenantNamespaces> recording(
+      CacheLoader<TenantDataCacheKey, UserTenantNamespaces> delegate) {
+    return new CacheLoader<TenantDataCacheKey, UserTenantNamespaces>() {
+      @Override
+      public UserTenantNamespaces load(TenantDataCacheKey key) throws Exception {
+        UserTenantNamespaces namespaces = delegate.load(key);
+        record(namespaces);
+        return namespaces;
+      }
+    };
+  }
+
+  @VisibleForTesting
+  void record(UserTenantNamespaces namespaces) {
+    long now = ticker.read();
+    for (UserCheTenantData tenantData : namespaces.getNamespacesByType().values()) {
+      String clusterUrl = tenantData.getClusterUrl();
+      if (clusterUrl != null && !clusterUrl.isEmpty()) {
+        capacityByClusterUrl.put(
+            clusterUrl, new ClusterCapacity(tenantData.isClusterCapacityExhausted(), now));
+      }
+    }
+  }
+
+  private void scheduleRefresh(String clusterUrl, String keycloakToken) {
+    if (reloader == null || !refreshing.add(clusterUrl)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> refresh(clusterUrl, keycloakToken));
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(clusterUrl);
+    }
+  }
+
+  private void refresh(String clusterUrl, String keycloakToken) {
+    try {
+      // the reloader records the capacity of the clusters of the user
+      reloader.reload(keycloakToken);
+    } catch (Exception e) {
+      LOG.debug("Failed to refresh the capacity of cluster '{}': {}", clusterUrl, e.getMessage());
+      capacityByClusterUrl.computeIfPresent(
+          clusterUrl, (url, capacity) -> capacity.failedAt(ticker.read(), ttlNanos));
+    } finally {
+      refreshing.remove(clusterUrl);
+    }
+  }
+
+  private static ExecutorService createRefreshExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            REFRESH_THREADS,
+            REFRESH_THREADS,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE),
+            new ThreadFactoryBuilder()
+                .setNameFormat("ClusterCapacityRefresher-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** Reloads the tenant data of the user a Keycloak token was issued to. */
+  interface TenantDataReloader {
+    void reload(String keycloakToken) throws Exception;
+  }
+
+  private static class ClusterCapacity {
+    private final boolean exhausted;
+    private final long checkedAtNanos;
+    private final int failures;
+    private final long nextRefreshNanos;
+
+    private ClusterCapacity(boolean exhausted, long checkedAtNanos) {
+      this(exhausted, checkedAtNanos, 0, checkedAtNanos);
+    }
+
+    private ClusterCapacity(
+        boolean exhausted, long checkedAtNanos, int failures, long nextRefreshNanos) {
+      this.exhausted = exhausted;
+      this.checkedAtNanos = checkedAtNanos;
+      this.failures = failures;
+      this.nextRefreshNanos = nextRefreshNanos;
+    }
+
+    private ClusterCapacity failedAt(long nanos, long maxBackoffNanos) {
+      long backoffNanos =
+          Math.min(INITIAL_BACKOFF_NANOS << Math.min(failures, 30), maxBackoffNanos);
+      return new ClusterCapacity(exhausted, checkedAtNanos, failures + 1, nanos + backoffNanos);
+    }
+  }
+}
@@ -13,22 +13,33 @@ package com.redhat.che.multitenant.tenantdata;
 
 import java.util.Objects;
 
+/**
+ * Key of the tenant data cache.
+ *
+ * <p>The key always carries the Keycloak token used to load the tenant data, but only its {@code
+ * identity} takes part in equality. The identity is either the token itself, or the ID of the user
+ * the token was issued to, in which case cache entries survive token refreshes.
+ */
 class TenantDataCacheKey {
 
+  private final String identity;
   private final String keycloakToken;
-  private final String namespaceType;
 
-  TenantDataCacheKey(String keycloakToken, String namespaceType) {
+  TenantDataCacheKey(String keycloakToken) {
+    this(keycloakToken, keycloakToken);
+  }
+
+  TenantDataCacheKey(String identity, String keycloakToken) {
+    this.identity = identity;
     this.keycloakToken = keycloakToken;
-    this.namespaceType = namespaceType;
   }
 
-  public String getKeycloakToken() {
-    return keycloakToken;
+  public String getIdentity() {
+    return identity;
   }
 
-  public String getNamespaceType() {
-    return namespaceType;
+  public String getKeycloakToken() {
+    return keycloakToken;
   }
 
   @Override
@@ -40,12 +51,11 @@ class TenantDataCacheKey {
       return false;
     }
     TenantDataCacheKey cacheKey = (TenantDataCacheKey) o;
-    return Objects.equals(keycloakToken, cacheKey.keycloakToken)
-        && Objects.equals(namespaceType, cacheKey.namespaceType);
+    return Objects.equals(identity, cacheKey.identity);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(keycloakToken, namespaceType);
+    return Objects.hashCode(identity);
   }
 }
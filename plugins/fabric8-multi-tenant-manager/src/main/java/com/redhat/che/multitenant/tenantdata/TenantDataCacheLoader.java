@@ -11,16 +11,12 @@
  */
 package com.redhat.che.multitenant.tenantdata;
 
-import static java.lang.String.format;
-
 import com.google.common.cache.CacheLoader;
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import com.redhat.che.multitenant.tenantdata.UserServicesJsonResponse.Namespace;
 import java.io.IOException;
-import java.util.List;
+import java.io.StringReader;
 import org.eclipse.che.api.core.ApiException;
 import org.eclipse.che.api.core.BadRequestException;
 import org.eclipse.che.api.core.ConflictException;
@@ -28,14 +24,13 @@ import org.eclipse.che.api.core.ForbiddenException;
 import org.eclipse.che.api.core.NotFoundException;
 import org.eclipse.che.api.core.ServerException;
 import org.eclipse.che.api.core.UnauthorizedException;
-import org.eclipse.che.api.core.ValidationException;
 import org.eclipse.che.api.core.rest.HttpJsonRequestFactory;
 import org.eclipse.che.api.core.rest.HttpJsonResponse;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class TenantDataCacheLoader extends CacheLoader<TenantDataCacheKey, UserCheTenantData> {
+class TenantDataCacheLoader extends CacheLoader<TenantDataCacheKey, UserTenantNamespaces> {
   private static final Logger LOG = LoggerFactory.getLogger(TenantDataCacheLoader.class);
   private static final String API_USER_SERVICES_PATH = "/api/user/services";
   private final HttpJsonRequestFactory httpJsonRequestFactory;
@@ -50,8 +45,8 @@ class TenantDataCacheLoader extends CacheLoader<TenantDataCacheKey, UserCheTenan
   }
 
   @Override
-  public UserCheTenantData load(final TenantDataCacheKey cacheKey) throws InfrastructureException {
-    final String namespace = cacheKey.getNamespaceType();
+  public UserTenantNamespaces load(final TenantDataCacheKey cacheKey)
+      throws InfrastructureException {
     final String responseBody;
     try {
       responseBody = getResponseBody(fabric8UserServiceEndpoint, cacheKey.getKeycloakToken());
@@ -60,37 +55,11 @@ class TenantDataCacheLoader extends CacheLoader<TenantDataCacheKey, UserCheTenan
       throw new InfrastructureException("Exception during the user tenant data retrieval", e);
     }
     try {
-      final Gson gson = new Gson();
-      final UserServicesJsonResponse userServicesData =
-          gson.fromJson(responseBody, UserServicesJsonResponse.class);
-      List<Namespace> namespaces = userServicesData.getNamespaces();
-      for (Namespace ns : namespaces) {
-        if (namespace.equals(ns.getType())) {
-          UserCheTenantData cheTenantData =
-              new UserCheTenantData(
-                  ns.getName(),
-                  ns.getClusterUrl(),
-                  ns.getClusterAppDomain(),
-                  ns.isClusterCapacityExhausted());
-          UserCheTenantDataValidator.validate(cheTenantData);
-          return cheTenantData;
-        }
-      }
-    } catch (ValidationException | JsonSyntaxException | NullPointerException e) {
+      return UserServicesResponseParser.parse(new StringReader(responseBody));
+    } catch (JsonParseException e) {
       throw new InfrastructureException(
           "Invalid response from Fabric8 user services:" + responseBody, e);
     }
-    if ("user".equals(namespace)) {
-      // This happens only if there is a bug on the '/api/user/services' or init tenant side
-      // Let's log the error and return blank data instead of throwing an exception and failing the
-      // workspace startup
-      LOG.error("No namespace with type 'user' was found in the user tenant: {}", responseBody);
-      return new UserCheTenantData("", "", "", false);
-    }
-    throw new InfrastructureException(
-        format(
-            "No namespace with type '%s' was found in the user tenant",
-            cacheKey.getNamespaceType()));
   }
 
   private String getResponseBody(final String endpoint, final String keycloakToken)
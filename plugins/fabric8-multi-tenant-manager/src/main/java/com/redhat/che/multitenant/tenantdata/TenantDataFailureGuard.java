@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static java.lang.String.format;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects the fabric8 auth service from retry storms when tenant data cannot be retrieved.
+ *
+ * <ul>
+ *   <li>A failed load is remembered for its cache key, and new attempts for the same key fail
+ *       immediately with the same error until an exponentially growing backoff delay has elapsed.
+ *   <li>When the auth service is unavailable (server errors or I/O failures) for a number of
+ *       consecutive loads, the circuit opens and every load fails fast for a while. A single load
+ *       is then let through to probe the service, and the circuit closes again when it succeeds.
+ * </ul>
+ *
+ * <p>Concurrent loads of the same key are already collapsed into a single one by the {@link
+ * com.google.common.cache.LoadingCache} this loader is used with.
+ */
+class TenantDataFailureGuard extends CacheLoader<TenantDataCacheKey, UserTenantNamespaces> {
+  private static final Logger LOG = LoggerFactory.getLogger(TenantDataFailureGuard.class);
+
+  private static final long INITIAL_BACKOFF_SECONDS = 1;
+  private static final long MAX_BACKOFF_SECONDS = 60;
+
+  private enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final CacheLoader<TenantDataCacheKey, UserTenantNamespaces> delegate;
+  private final Ticker ticker;
+  private final int failureThreshold;
+  private final long openDurationNanos;
+  private final Cache<String, Failure> failures;
+
+  private CircuitState circuitState = CircuitState.CLOSED;
+  private int consecutiveFailures;
+  private long openedAtNanos;
+
+  TenantDataFailureGuard(
+      CacheLoader<TenantDataCacheKey, UserTenantNamespaces> delegate,
+      Ticker ticker,
+      long maxEntries,
+      int failureThreshold,
+      long openDurationSeconds) {
+    this.delegate = delegate;
+    this.ticker = ticker;
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = TimeUnit.SECONDS.toNanos(openDurationSeconds);
+    this.failures =
+        CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .maximumSize(maxEntries)
+            .expireAfterWrite(Duration.ofSeconds(MAX_BACKOFF_SECONDS))
+            .build();
+  }
+
+  @Override
+  public UserTenantNamespaces load(TenantDataCacheKey key) throws InfrastructureException {
+    String identity = key.getIdentity();
+    checkRecentFailure(identity);
+    acquireCircuit();
+
+    UserTenantNamespaces namespaces;
+    try {
+      namespaces = delegate.load(key);
+    } catch (InfrastructureException e) {
+      recordFailure(identity, e);
+      throw e;
+    } catch (Exception e) {
+      InfrastructureException infraException =
+          new InfrastructureException("Exception during the user tenant data retrieval", e);
+      recordFailure(identity, infraException);
+      throw infraException;
+    }
+    failures.invalidate(identity);
+    onServiceAvailable();
+    return namespaces;
+  }
+
+  private void checkRecentFailure(String identity) throws InfrastructureException {
+    Failure failure = failures.getIfPresent(identity);
+    if (failure == null) {
+      return;
+    }
+    long remainingNanos = failure.retryAtNanos - ticker.read();
+    if (remainingNanos > 0) {
+      throw new InfrastructureException(
+          format(
+              "User tenant data retrieval failed recently, next attempt in %d ms: %s",
+              TimeUnit.NANOSECONDS.toMillis(remainingNanos), failure.cause.getMessage()),
+          failure.cause);
+    }
+  }
+
+  private synchronized void acquireCircuit() throws InfrastructureException {
+    if (circuitState == CircuitState.CLOSED) {
+      return;
+    }
+    long openForNanos = ticker.read() - openedAtNanos;
+    if (circuitState == CircuitState.OPEN && openForNanos >= openDurationNanos) {
+      LOG.info(
+          "Probing the fabric8 auth service after {} consecutive failures", consecutiveFailures);
+      circuitState = CircuitState.HALF_OPEN;
+      return;
+    }
+    throw new InfrastructureException(
+        format(
+            "User tenant data retrieval is suspended since the fabric8 auth service failed %d "
+                + "consecutive times. Next attempt in %d ms",
+            consecutiveFailures,
+            Math.max(0, TimeUnit.NANOSECONDS.toMillis(openDurationNanos - openForNanos))));
+  }
+
+  private void recordFailure(String identity, InfrastructureException e) {
+    failures
+        .asMap()
+        .compute(
+            identity,
+            (k, previous) -> {
+              int attempts = previous == null ? 1 : previous.attempts + 1;
+              long backoffSeconds =
+                  Math.min(
+                      MAX_BACKOFF_SECONDS, INITIAL_BACKOFF_SECONDS << (Math.min(attempts, 16) - 1));
+              return new Failure(
+                  attempts, ticker.read() + TimeUnit.SECONDS.toNanos(backoffSeconds), e);
+            });
+    if (isServiceUnavailable(e)) {
+      onServiceUnavailable();
+    } else {
+      // the auth service did answer, only this user's data could not be retrieved
+      onServiceAvailable();
+    }
+  }
+
+  private synchronized void onServiceAvailable() {
+    if (circuitState != CircuitState.CLOSED) {
+      LOG.info("Fabric8 auth service is available again, resuming user tenant data retrieval");
+    }
+    circuitState = CircuitState.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  private synchronized void onServiceUnavailable() {
+    consecutiveFailures++;
+    if (circuitState == CircuitState.HALF_OPEN
+        || (circuitState == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+      LOG.warn(
+          "Fabric8 auth service failed {} consecutive times, suspending user tenant data "
+              + "retrieval for {} s",
+          consecutiveFailures,
+          TimeUnit.NANOSECONDS.toSeconds(openDurationNanos));
+      circuitState = CircuitState.OPEN;
+      openedAtNanos = ticker.read();
+    }
+  }
+
+  private static boolean isServiceUnavailable(InfrastructureException e) {
+    Throwable cause = e.getCause();
+    return cause instanceof ServerException || cause instanceof IOException;
+  }
+
+  private static class Failure {
+    private final int attempts;
+    private final long retryAtNanos;
+    private final InfrastructureException cause;
+
+    private Failure(int attempts, long retryAtNanos, InfrastructureException cause) {
+      this.attempts = attempts;
+      this.retryAtNanos = retryAtNanos;
+      this.cause = cause;
+    }
+  }
+}
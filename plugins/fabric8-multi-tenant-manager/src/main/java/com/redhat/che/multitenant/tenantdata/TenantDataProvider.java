@@ -11,43 +11,195 @@
  */
 package com.redhat.che.multitenant.tenantdata;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.name.Named;
+import com.redhat.che.multitenant.metrics.TimedCacheLoader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.commons.subject.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Provides {@link UserCheTenantData} for a particular user and cheNamespace type in his tenant.
  *
+ * <p>All the namespaces of a user tenant are retrieved with a single request and cached together,
+ * so that lookups of different namespace types for the same user share the same cache entry.
+ *
+ * <p>By default, cache entries are keyed by the user Keycloak token. When {@code
+ * che.fabric8.tenant_data.cache.key_by_user_id} is enabled, they are keyed by the user ID instead,
+ * so that they survive token refreshes. In this mode the token is verified on each lookup, and must
+ * be a valid token issued to the user whose tenant data are requested.
+ *
+ * <p>When {@code che.fabric8.tenant_data.cache.refresh_after_write_min} is positive, entries older
+ * than this are reloaded in the background on access, while callers keep getting the cached value.
+ * If the reload fails, the last retrieved value is still served until the entry expires, so the
+ * grace period during which stale data may be served is bounded by the difference between the
+ * expiration and the refresh delays.
+ *
+ * <p>Failed retrievals are guarded by a {@link TenantDataFailureGuard}, so that an unavailable
+ * fabric8 auth service makes lookups fail fast instead of being hammered by retries.
+ *
+ * <p>The size and expiration of the cache are configured with {@code
+ * che.fabric8.tenant_data.cache.max_size} and {@code
+ * che.fabric8.tenant_data.cache.expire_after_write_min}. When Che metrics are enabled, the cache
+ * statistics and the latency of the retrievals are published with the {@code fabric8_tenant_data}
+ * cache name.
+ *
+ * <p>When keyed by user ID, the cache can be persisted in a {@link TenantDataSnapshot}, which is
+ * read at startup so that users are served warm data while they are revalidated in the background.
+ *
+ * <p>Every retrieval updates the {@link ClusterCapacityIndex}, which should be used instead of the
+ * cached capacity flag to know whether the cluster of a user is out of capacity. The index
+ * refreshes the capacity of the clusters by reloading the tenant data of the requesting user
+ * through the same timed and guarded loader, and the reloaded data replace the cached ones.
+ *
  * @author Oleksandr Garagatyi
  */
 @Singleton
-public class TenantDataProvider {
+public class TenantDataProvider implements MeterBinder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TenantDataProvider.class);
 
-  private static final int CACHE_TIMEOUT_MINUTES = 10;
-  private static final int CONCURRENT_USERS = 1000;
+  private static final String CACHE_NAME = "fabric8_tenant_data";
+  private static final int REFRESH_THREADS = 4;
+  private static final int REFRESH_QUEUE_SIZE = 1000;
 
   private final String cheNamespace;
   private final boolean standalone;
-  private final LoadingCache<TenantDataCacheKey, UserCheTenantData> tenantDataCache;
+  private final boolean keyByUserId;
+  private final JwtParser jwtParser;
+  private final ExecutorService refreshExecutor;
+  private final TimedCacheLoader<TenantDataCacheKey, UserTenantNamespaces> timedCacheLoader;
+  private final CacheLoader<TenantDataCacheKey, UserTenantNamespaces> guardedCacheLoader;
+  private final LoadingCache<TenantDataCacheKey, UserTenantNamespaces> tenantDataCache;
 
   @Inject
   public TenantDataProvider(
       TenantDataCacheLoader tenantDataCacheLoader,
       @Named("che.infra.openshift.project") String cheNamespace,
-      @Named("che.fabric8.standalone") boolean standalone) {
+      @Named("che.fabric8.standalone") boolean standalone,
+      @Named("che.fabric8.tenant_data.cache.key_by_user_id") boolean keyByUserId,
+      @Named("che.fabric8.tenant_data.cache.max_size") long maxSize,
+      @Named("che.fabric8.tenant_data.cache.expire_after_write_min") long expireAfterWriteMin,
+      @Named("che.fabric8.tenant_data.cache.refresh_after_write_min") long refreshAfterWriteMin,
+      @Named("che.fabric8.tenant_data.circuit_breaker.failure_threshold") int failureThreshold,
+      @Named("che.fabric8.tenant_data.circuit_breaker.open_duration_sec") long openDurationSec,
+      JwtParser jwtParser,
+      TenantDataSnapshot snapshot,
+      ClusterCapacityIndex clusterCapacityIndex) {
+    this(
+        tenantDataCacheLoader,
+        cheNamespace,
+        standalone,
+        keyByUserId,
+        maxSize,
+        expireAfterWriteMin,
+        refreshAfterWriteMin,
+        failureThreshold,
+        openDurationSec,
+        jwtParser,
+        snapshot,
+        clusterCapacityIndex,
+        Ticker.systemTicker(),
+        createRefreshExecutor());
+  }
+
+  @VisibleForTesting
+  TenantDataProvider(
+      TenantDataCacheLoader tenantDataCacheLoader,
+      String cheNamespace,
+      boolean standalone,
+      boolean keyByUserId,
+      long maxSize,
+      long expireAfterWriteMin,
+      long refreshAfterWriteMin,
+      int failureThreshold,
+      long openDurationSec,
+      JwtParser jwtParser,
+      TenantDataSnapshot snapshot,
+      ClusterCapacityIndex clusterCapacityIndex,
+      Ticker ticker,
+      ExecutorService refreshExecutor) {
     this.cheNamespace = cheNamespace;
     this.standalone = standalone;
-    this.tenantDataCache =
+    this.keyByUserId = keyByUserId;
+    this.jwtParser = jwtParser;
+    this.refreshExecutor = refreshExecutor;
+
+    CacheBuilder<Object, Object> cacheBuilder =
         CacheBuilder.newBuilder()
-            .maximumSize(CONCURRENT_USERS)
-            .expireAfterWrite(CACHE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
-            .build(tenantDataCacheLoader);
+            .ticker(ticker)
+            .maximumSize(maxSize)
+            .expireAfterWrite(Duration.ofMinutes(expireAfterWriteMin))
+            .recordStats();
+    this.timedCacheLoader = new TimedCacheLoader<>(tenantDataCacheLoader);
+    this.guardedCacheLoader =
+        new TenantDataFailureGuard(
+            clusterCapacityIndex.recording(timedCacheLoader),
+            ticker,
+            maxSize,
+            failureThreshold,
+            openDurationSec);
+    clusterCapacityIndex.refreshWith(this::reload);
+    CacheLoader<TenantDataCacheKey, UserTenantNamespaces> cacheLoader = guardedCacheLoader;
+    boolean warmStart = snapshot.isEnabled() && keyByUserId;
+    if (warmStart) {
+      cacheLoader =
+          new WarmStartCacheLoader(
+              cacheLoader, snapshot.read(), refreshExecutor, this::putRevalidated);
+    } else if (snapshot.isEnabled()) {
+      LOG.warn(
+          "Tenant data snapshot is ignored since tenant data are not cached by user ID, "
+              + "see 'che.fabric8.tenant_data.cache.key_by_user_id'");
+    }
+    if (refreshAfterWriteMin > 0) {
+      if (refreshAfterWriteMin >= expireAfterWriteMin) {
+        LOG.warn(
+            "Tenant data refresh delay ({} min) is not lower than the cache expiration ({} min): "
+                + "tenant data will never be refreshed in the background",
+            refreshAfterWriteMin,
+            expireAfterWriteMin);
+      }
+      cacheBuilder.refreshAfterWrite(Duration.ofMinutes(refreshAfterWriteMin));
+      cacheLoader = CacheLoader.asyncReloading(cacheLoader, refreshExecutor);
+    }
+    this.tenantDataCache = cacheBuilder.build(cacheLoader);
+    if (warmStart) {
+      snapshot.start(this::getCachedNamespacesByUserId);
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    GuavaCacheMetrics.monitor(registry, tenantDataCache, CACHE_NAME);
+    timedCacheLoader.bindTo(registry, CACHE_NAME);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    refreshExecutor.shutdownNow();
   }
 
   /**
@@ -66,14 +218,96 @@ public class TenantDataProvider {
 
     checkSubject(subject);
 
-    // Token is checked in #checkSubject()
-    String keycloakToken = subject.getToken();
+    UserTenantNamespaces namespaces;
     try {
-      return tenantDataCache.get(new TenantDataCacheKey(keycloakToken, namespaceType));
+      namespaces = tenantDataCache.get(getCacheKey(subject));
     } catch (ExecutionException e) {
       throw new InfrastructureException(
           "Exception during the user tenant data retrieval or parsing", e.getCause());
     }
+    return namespaces.getTenantData(namespaceType);
+  }
+
+  /**
+   * Reloads the tenant data of the user the given token was issued to, and caches them under the
+   * same key as {@link #getUserCheTenantData(Subject, String)} would.
+   */
+  private void reload(String keycloakToken) throws Exception {
+    TenantDataCacheKey key = getCacheKey(keycloakToken);
+    if (key.getIdentity() == null) {
+      throw new InfrastructureException("The token was not issued to any user");
+    }
+    tenantDataCache.put(key, guardedCacheLoader.load(key));
+  }
+
+  private void putRevalidated(TenantDataCacheKey key, UserTenantNamespaces namespaces) {
+    tenantDataCache.put(key, namespaces);
+  }
+
+  private Map<String, UserTenantNamespaces> getCachedNamespacesByUserId() {
+    Map<String, UserTenantNamespaces> namespacesByUserId = new HashMap<>();
+    tenantDataCache
+        .asMap()
+        .forEach((key, value) -> namespacesByUserId.put(key.getIdentity(), value));
+    return namespacesByUserId;
+  }
+
+  private static ExecutorService createRefreshExecutor() {
+    // Refreshes that cannot be queued are rejected, and the stale value is kept until the next
+    // access triggers a new refresh or the entry expires
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            REFRESH_THREADS,
+            REFRESH_THREADS,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE),
+            new ThreadFactoryBuilder()
+                .setNameFormat("TenantDataRefresher-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private TenantDataCacheKey getCacheKey(Subject subject) throws InfrastructureException {
+    if (!keyByUserId) {
+      // Token is checked in #checkSubject()
+      return getCacheKey(subject.getToken());
+    }
+    String tokenUserId;
+    try {
+      tokenUserId = getCacheKey(subject.getToken()).getIdentity();
+    } catch (JwtException | IllegalArgumentException e) {
+      throw new InfrastructureException(
+          "User tenant data is needed but the token of user '"
+              + subject.getUserId()
+              + "' is not valid: "
+              + e.getMessage(),
+          e);
+    }
+    if (tokenUserId == null || !tokenUserId.equals(subject.getUserId())) {
+      throw new InfrastructureException(
+          "User tenant data is needed but the token was not issued to user '"
+              + subject.getUserId()
+              + "'");
+    }
+    return new TenantDataCacheKey(tokenUserId, subject.getToken());
+  }
+
+  /**
+   * Returns the cache key of the tenant data of the user the given token was issued to.
+   *
+   * @throws JwtException when the cache is keyed by user ID and the token is not valid
+   * @throws IllegalArgumentException when the cache is keyed by user ID and the token is empty
+   */
+  private TenantDataCacheKey getCacheKey(String keycloakToken) {
+    if (!keyByUserId) {
+      return new TenantDataCacheKey(keycloakToken);
+    }
+    String tokenUserId = jwtParser.parseClaimsJws(keycloakToken).getBody().getSubject();
+    return new TenantDataCacheKey(tokenUserId, keycloakToken);
   }
 
   private UserCheTenantData getDataStandalone(String namespaceType) {
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.annotation.Nullable;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk snapshot of the cached user tenant data, used to start with a warm cache after a wsmaster
+ * restart.
+ *
+ * <p>Only the namespaces of the tenants are stored, keyed by user ID, so the snapshot contains no
+ * token. It is written periodically and on shutdown to the file configured with {@code
+ * che.fabric8.tenant_data.snapshot.file}, and is ignored when it is older than {@code
+ * che.fabric8.tenant_data.snapshot.max_age_min}. Snapshots are disabled when no file is configured.
+ *
+ * <p>The file has a compact binary layout, and is memory-mapped when read:
+ *
+ * <pre>
+ * magic: int, version: int, written at (epoch millis): long, users count: int, and for each user:
+ *   user ID: string, namespaces count: int, and for each namespace:
+ *     type: string, name: string, cluster URL: string, cluster app domain: string,
+ *     cluster capacity exhausted: byte
+ * </pre>
+ *
+ * where strings are written as their UTF-8 bytes count (-1 for null) followed by the bytes.
+ */
+@Singleton
+public class TenantDataSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TenantDataSnapshot.class);
+
+  private static final int MAGIC = 0x52484344;
+  private static final int VERSION = 1;
+
+  private final Path file;
+  private final long writePeriodMin;
+  private final long maxAgeMillis;
+
+  private ScheduledExecutorService writeExecutor;
+  private ScheduledFuture<?> writeTask;
+  private Supplier<Map<String, UserTenantNamespaces>> source;
+
+  @Inject
+  public TenantDataSnapshot(
+      @Nullable @Named("che.fabric8.tenant_data.snapshot.file") String file,
+      @Named("che.fabric8.tenant_data.snapshot.write_period_min") long writePeriodMin,
+      @Named("che.fabric8.tenant_data.snapshot.max_age_min") long maxAgeMin) {
+    this.file = file == null ? null : Paths.get(file);
+    this.writePeriodMin = writePeriodMin;
+    this.maxAgeMillis = TimeUnit.MINUTES.toMillis(maxAgeMin);
+  }
+
+  /** Returns true when a snapshot file is configured. */
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Reads the tenant data stored in the snapshot, by user ID.
+   *
+   * @return the snapshot content, or an empty map when snapshots are disabled, or when the snapshot
+   *     does not exist, is too old or cannot be read
+   */
+  public Map<String, UserTenantNamespaces> read() {
+    if (!isEnabled()) {
+      return Collections.emptyMap();
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        LOG.warn("Ignoring tenant data snapshot '{}' with unknown format", file);
+        return Collections.emptyMap();
+      }
+      long ageMillis = System.currentTimeMillis() - buffer.getLong();
+      if (ageMillis > maxAgeMillis) {
+        LOG.info(
+            "Ignoring tenant data snapshot '{}' written {} min ago",
+            file,
+            TimeUnit.MILLISECONDS.toMinutes(ageMillis));
+        return Collections.emptyMap();
+      }
+      int usersCount = buffer.getInt();
+      Map<String, UserTenantNamespaces> namespacesByUserId = new HashMap<>();
+      for (int i = 0; i < usersCount; i++) {
+        String userId = getString(buffer);
+        int namespacesCount = buffer.getInt();
+        Map<String, UserCheTenantData> namespacesByType = new HashMap<>();
+        for (int j = 0; j < namespacesCount; j++) {
+          namespacesByType.put(
+              getString(buffer),
+              new UserCheTenantData(
+                  getString(buffer), getString(buffer), getString(buffer), buffer.get() != 0));
+        }
+        namespacesByUserId.put(userId, new UserTenantNamespaces(namespacesByType));
+      }
+      LOG.info("Read tenant data of {} users from snapshot '{}'", usersCount, file);
+      return Collections.unmodifiableMap(namespacesByUserId);
+    } catch (NoSuchFileException e) {
+      return Collections.emptyMap();
+    } catch (IOException | RuntimeException e) {
+      // a truncated or corrupted snapshot fails with buffer underflows or null values
+      LOG.warn("Ignoring unreadable tenant data snapshot '{}': {}", file, e.toString());
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * Writes the given tenant data, by user ID, to the snapshot. The previous snapshot is replaced
+   * atomically, so that a concurrent or interrupted write never leaves a partial snapshot.
+   */
+  public void write(Map<String, UserTenantNamespaces> namespacesByUserId) throws IOException {
+    write(namespacesByUserId, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  synchronized void write(Map<String, UserTenantNamespaces> namespacesByUserId, long writtenAt)
+      throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(writtenAt);
+        out.writeInt(namespacesByUserId.size());
+        for (Map.Entry<String, UserTenantNamespaces> user : namespacesByUserId.entrySet()) {
+          putString(out, user.getKey());
+          Map<String, UserCheTenantData> namespacesByType = user.getValue().getNamespacesByType();
+          out.writeInt(namespacesByType.size());
+          for (Map.Entry<String, UserCheTenantData> namespace : namespacesByType.entrySet()) {
+            UserCheTenantData tenantData = namespace.getValue();
+            putString(out, namespace.getKey());
+            putString(out, tenantData.getNamespace());
+            putString(out, tenantData.getClusterUrl());
+            putString(out, tenantData.getRouteBaseSuffix());
+            out.writeByte(tenantData.isClusterCapacityExhausted() ? 1 : 0);
+          }
+        }
+      }
+      Files.move(tmpFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    } finally {
+      deleteTempFile(tmpFile);
+    }
+  }
+
+  /** Deletes the temporary file of a failed write, without hiding the failure of the write. */
+  private static void deleteTempFile(Path tmpFile) {
+    try {
+      if (Files.deleteIfExists(tmpFile)) {
+        LOG.debug("Deleted temporary tenant data snapshot '{}'", tmpFile);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to delete temporary tenant data snapshot '{}': {}", tmpFile, e.toString());
+    }
+  }
+
+  /**
+   * Periodically writes the tenant data provided by the given source to the snapshot, and writes
+   * them a last time on shutdown. Does nothing when snapshots are disabled.
+   */
+  public synchronized void start(Supplier<Map<String, UserTenantNamespaces>> source) {
+    if (!isEnabled() || writeExecutor != null) {
+      return;
+    }
+    this.source = source;
+    writeExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("TenantDataSnapshotWriter-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    writeTask =
+        writeExecutor.scheduleWithFixedDelay(
+            this::writeFromSource, writePeriodMin, writePeriodMin, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  synchronized void shutdown() {
+    if (writeExecutor == null) {
+      return;
+    }
+    writeTask.cancel(false);
+    writeExecutor.shutdownNow();
+    writeExecutor = null;
+    writeTask = null;
+    writeFromSource();
+  }
+
+  private void writeFromSource() {
+    try {
+      write(source.get());
+    } catch (IOException | RuntimeException e) {
+      // an exception would also cancel the periodic writes
+      LOG.warn("Failed to write tenant data snapshot '{}'", file, e);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void putString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser of the fabric8 {@code /api/user/services} response.
+ *
+ * <p>Only the {@code data.attributes.namespaces} node is walked, and only the fields needed to
+ * build {@link UserCheTenantData} are read. Every other value is skipped without being
+ * materialized. Response example:
+ *
+ * <pre>
+ * {"data": {"attributes": {"namespaces": [{"name": "john-che", "type": "che",
+ *   "cluster-url": "https://api.cluster/", "cluster-app-domain": "cluster.app.domain",
+ *   "cluster-capacity-exhausted": false, ...}, ...], ...}, ...}}
+ * </pre>
+ */
+final class UserServicesResponseParser {
+
+  /** Only used to create readers, so the configuration is shared by all the parsings. */
+  private static final Gson GSON = new Gson();
+
+  private UserServicesResponseParser() {}
+
+  /**
+   * Parses the namespaces of a user tenant. When several namespaces have the same type, the first
+   * one is kept. Namespaces without type are ignored.
+   *
+   * @throws JsonParseException when the response cannot be read, is not a well-formed JSON
+   *     document, or does not contain the namespaces node with the expected structure
+   */
+  static UserTenantNamespaces parse(Reader response) {
+    try (JsonReader reader = GSON.newJsonReader(response)) {
+      reader.setLenient(true);
+      if (!moveTo(reader, "data")
+          || !moveTo(reader, "attributes")
+          || !moveTo(reader, "namespaces")) {
+        throw new JsonParseException("No 'data.attributes.namespaces' node found");
+      }
+      Map<String, UserCheTenantData> namespacesByType = new HashMap<>();
+      reader.beginArray();
+      while (reader.hasNext()) {
+        readNamespace(reader, namespacesByType);
+      }
+      reader.endArray();
+      return new UserTenantNamespaces(namespacesByType);
+    } catch (MalformedJsonException | IllegalStateException e) {
+      // same exceptions translation as in Gson#fromJson
+      throw new JsonSyntaxException(e);
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+  }
+
+  /**
+   * Enters the current object, and moves to the value of its property with the given name.
+   *
+   * @return false if the current value is null, or if the property does not exist
+   */
+  private static boolean moveTo(JsonReader reader, String property) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      return false;
+    }
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (property.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+        return true;
+      }
+      reader.skipValue();
+    }
+    return false;
+  }
+
+  private static void readNamespace(
+      JsonReader reader, Map<String, UserCheTenantData> namespacesByType) throws IOException {
+    String name = null;
+    String type = null;
+    String clusterUrl = null;
+    String clusterAppDomain = null;
+    boolean clusterCapacityExhausted = false;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "name":
+          name = nextString(reader);
+          break;
+        case "type":
+          type = nextString(reader);
+          break;
+        case "cluster-url":
+          clusterUrl = nextString(reader);
+          break;
+        case "cluster-app-domain":
+          clusterAppDomain = nextString(reader);
+          break;
+        case "cluster-capacity-exhausted":
+          clusterCapacityExhausted = nextBoolean(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (type != null) {
+      namespacesByType.putIfAbsent(
+          type,
+          new UserCheTenantData(name, clusterUrl, clusterAppDomain, clusterCapacityExhausted));
+    }
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  private static boolean nextBoolean(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case NULL:
+        reader.nextNull();
+        return false;
+      case STRING:
+        return Boolean.parseBoolean(reader.nextString());
+      default:
+        return reader.nextBoolean();
+    }
+  }
+}
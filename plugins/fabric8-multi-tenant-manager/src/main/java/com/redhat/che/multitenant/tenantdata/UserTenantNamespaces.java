@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static java.lang.String.format;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.eclipse.che.api.core.ValidationException;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * All the namespaces of a user tenant, as returned by a single call to the fabric8 {@code
+ * /api/user/services} endpoint, indexed by namespace type.
+ *
+ * <p>Instances are immutable and can be cached to answer lookups of any namespace type.
+ */
+class UserTenantNamespaces {
+  private static final Logger LOG = LoggerFactory.getLogger(UserTenantNamespaces.class);
+
+  private final Map<String, UserCheTenantData> namespacesByType;
+
+  UserTenantNamespaces(Map<String, UserCheTenantData> namespacesByType) {
+    this.namespacesByType = ImmutableMap.copyOf(namespacesByType);
+  }
+
+  Map<String, UserCheTenantData> getNamespacesByType() {
+    return namespacesByType;
+  }
+
+  /**
+   * Returns the validated tenant data of the namespace with the given type.
+   *
+   * @throws InfrastructureException when tenant data of the namespace is invalid or there is no
+   *     namespace of specified type in user's tenant
+   */
+  UserCheTenantData getTenantData(String namespaceType) throws InfrastructureException {
+    UserCheTenantData cheTenantData = namespacesByType.get(namespaceType);
+    if (cheTenantData != null) {
+      try {
+        UserCheTenantDataValidator.validate(cheTenantData);
+      } catch (ValidationException e) {
+        throw new InfrastructureException(
+            "Invalid response from Fabric8 user services:" + cheTenantData, e);
+      }
+      return cheTenantData;
+    }
+    if ("user".equals(namespaceType)) {
+      // This happens only if there is a bug on the '/api/user/services' or init tenant side
+      // Let's log the error and return blank data instead of throwing an exception and failing the
+      // workspace startup
+      LOG.error("No namespace with type 'user' was found in the user tenant: {}", namespacesByType);
+      return new UserCheTenantData("", "", "", false);
+    }
+    throw new InfrastructureException(
+        format("No namespace with type '%s' was found in the user tenant", namespaceType));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import com.google.common.cache.CacheLoader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the tenant data read from a {@link TenantDataSnapshot} on the first load of each user, and
+ * revalidates them in the background.
+ *
+ * <p>Each warm entry is used only once: the user's data are retrieved with the user's token on the
+ * given executor, and the fresh value replaces the warm one in the cache. If the retrieval fails,
+ * the warm value stays cached until it expires. All subsequent loads go to the delegate.
+ */
+class WarmStartCacheLoader extends CacheLoader<TenantDataCacheKey, UserTenantNamespaces> {
+  private static final Logger LOG = LoggerFactory.getLogger(WarmStartCacheLoader.class);
+
+  private final CacheLoader<TenantDataCacheKey, UserTenantNamespaces> delegate;
+  private final Map<String, UserTenantNamespaces> warmEntries;
+  private final Executor revalidationExecutor;
+  private final BiConsumer<TenantDataCacheKey, UserTenantNamespaces> cachePut;
+
+  WarmStartCacheLoader(
+      CacheLoader<TenantDataCacheKey, UserTenantNamespaces> delegate,
+      Map<String, UserTenantNamespaces> warmEntries,
+      Executor revalidationExecutor,
+      BiConsumer<TenantDataCacheKey, UserTenantNamespaces> cachePut) {
+    this.delegate = delegate;
+    this.warmEntries = new ConcurrentHashMap<>(warmEntries);
+    this.revalidationExecutor = revalidationExecutor;
+    this.cachePut = cachePut;
+  }
+
+  @Override
+  public UserTenantNamespaces load(TenantDataCacheKey key) throws Exception {
+    UserTenantNamespaces warmNamespaces =
+        warmEntries.isEmpty() ? null : warmEntries.remove(key.getIdentity());
+    if (warmNamespaces == null) {
+      return delegate.load(key);
+    }
+    try {
+      revalidationExecutor.execute(() -> revalidate(key));
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Revalidation of the tenant data of user '{}' rejected", key.getIdentity());
+    }
+    return warmNamespaces;
+  }
+
+  private void revalidate(TenantDataCacheKey key) {
+    try {
+      cachePut.accept(key, delegate.load(key));
+    } catch (Exception e) {
+      LOG.warn(
+          "Revalidation of the tenant data of user '{}' failed, keeping the snapshot data: {}",
+          key.getIdentity(),
+          e.getMessage());
+    }
+  }
+}
@@ -11,48 +11,98 @@
  */
 package com.redhat.che.multitenant.toggle;
 
+import com.google.common.annotations.VisibleForTesting;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
-import no.finn.unleash.DefaultUnleash;
-import no.finn.unleash.Unleash;
-import no.finn.unleash.UnleashContext;
+import no.finn.unleash.FeatureToggle;
+import no.finn.unleash.repository.FeatureToggleRepository;
+import no.finn.unleash.repository.HttpToggleFetcher;
+import no.finn.unleash.repository.ToggleBackupHandlerFile;
+import no.finn.unleash.repository.ToggleRepository;
 import no.finn.unleash.util.UnleashConfig;
+import no.finn.unleash.util.UnleashScheduledExecutorImpl;
 import org.apache.commons.lang.StringUtils;
+import org.eclipse.che.commons.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /*
  * Toggle for canary rollout of moving Che to Service Account Token
  * @see <a href="https://github.com/redhat-developer/rh-che/issues/532">Change the token used to access Che tenant namespace in OSIO</a>
+ *
+ * The feature toggles are fetched from the toggles service every
+ * `che.fabric8.toggles.fetch_interval_sec` seconds, and saved to the
+ * `che.fabric8.toggles.backup_file` file, from which they are read at startup
+ * until the toggles service can be reached. Each time the fetched toggle changes,
+ * its strategies are precomputed into a ToggleSnapshot, which is evaluated locally.
  */
 @Singleton
 public class CheServiceAccountTokenToggle {
   private static final Logger LOG = LoggerFactory.getLogger(CheServiceAccountTokenToggle.class);
   private static final String APP_NAME = "rh-che";
   private static final String FEATURE_NAME = "che.serviceaccount.lockdown";
-  private static final String UNLEASH_API_ENDPOINT = "http://f8toggles/api";
   private static final String DEFAULT_HOSTNAME = "che-host";
   private static final String HOSTNAME_ENV_VAR = "HOSTNAME";
-  private Unleash unleash;
+  private static final String HOSTNAME_PROPERTY = "hostname";
+  private static final String UNDEFINED_HOSTNAME = "undefined";
+
+  private final String togglesEndpoint;
+  private final long fetchIntervalSec;
+  private final String backupFile;
+  private final String strategyHostname;
+  private volatile ToggleRepository toggleRepository;
+  private volatile ToggleSnapshot snapshot = ToggleSnapshot.UNKNOWN;
+
+  @Inject
+  public CheServiceAccountTokenToggle(
+      @Named("che.fabric8.toggles.endpoint") String togglesEndpoint,
+      @Named("che.fabric8.toggles.fetch_interval_sec") long fetchIntervalSec,
+      @Nullable @Named("che.fabric8.toggles.backup_file") String backupFile) {
+    this.togglesEndpoint = togglesEndpoint;
+    this.fetchIntervalSec = fetchIntervalSec;
+    this.backupFile = backupFile;
+    this.strategyHostname = resolveStrategyHostname();
+  }
+
+  @VisibleForTesting
+  protected CheServiceAccountTokenToggle(ToggleRepository toggleRepository) {
+    this(null, 0, null);
+    this.toggleRepository = toggleRepository;
+  }
 
   @PostConstruct
-  private void initUnleash() {
-    UnleashConfig config =
+  void initToggleRepository() {
+    UnleashConfig.Builder builder =
         UnleashConfig.builder()
             .appName(APP_NAME)
             .instanceId(getHostname())
-            .unleashAPI(UNLEASH_API_ENDPOINT)
-            .build();
-    this.unleash = new DefaultUnleash(config);
+            .unleashAPI(togglesEndpoint)
+            .fetchTogglesInterval(fetchIntervalSec);
+    if (!StringUtils.isBlank(backupFile)) {
+      builder.backupFile(backupFile);
+    }
+    UnleashConfig config = builder.build();
+    LOG.info("Feature toggles backup file: {}", config.getBackupFile());
+    this.toggleRepository =
+        new FeatureToggleRepository(
+            config,
+            new UnleashScheduledExecutorImpl(),
+            new HttpToggleFetcher(config),
+            new ToggleBackupHandlerFile(config));
   }
 
   public boolean useCheServiceAccountToken(final String userId) {
-    UnleashContext context = getContext(userId);
-    return unleash.isEnabled(FEATURE_NAME, context);
-  }
-
-  private UnleashContext getContext(final String userId) {
-    return UnleashContext.builder().userId(userId).build();
+    FeatureToggle toggle = toggleRepository.getToggle(FEATURE_NAME);
+    ToggleSnapshot current = snapshot;
+    if (!current.isComputedFrom(toggle)) {
+      current = ToggleSnapshot.of(toggle, strategyHostname);
+      snapshot = current;
+    }
+    return current.isEnabled(userId);
   }
 
   private String getHostname() {
@@ -60,4 +110,17 @@ public class CheServiceAccountTokenToggle {
     LOG.info("HOSTNAME: {}", hostname);
     return StringUtils.isBlank(hostname) ? DEFAULT_HOSTNAME : hostname;
   }
+
+  /** Resolves the host name matched by the applicationHostname strategy, as Unleash does. */
+  private static String resolveStrategyHostname() {
+    String hostname = System.getProperty(HOSTNAME_PROPERTY);
+    if (hostname != null) {
+      return hostname;
+    }
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return UNDEFINED_HOSTNAME;
+    }
+  }
 }
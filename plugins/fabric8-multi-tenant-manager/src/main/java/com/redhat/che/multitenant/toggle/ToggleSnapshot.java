@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.toggle;
+
+import static java.util.Collections.emptyList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import no.finn.unleash.ActivationStrategy;
+import no.finn.unleash.FeatureToggle;
+import no.finn.unleash.strategy.StrategyUtils;
+import org.eclipse.che.commons.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-user evaluation of a feature toggle, precomputed from the strategies of the toggle.
+ *
+ * <p>The {@code default} strategy enables the toggle for all the users, and so does the {@code
+ * applicationHostname} strategy when the host name of this Che server is listed, which is checked
+ * once when the snapshot is computed. The {@code userWithId} strategy is precomputed into a set of
+ * user IDs and the {@code gradualRolloutUserId} strategy into a group and a percentage, the users
+ * whose normalized hash is in the percentage being enabled, as Unleash does. The {@code
+ * gradualRolloutRandom} strategy is precomputed into a percentage, and a random number is drawn on
+ * each evaluation, as Unleash does. Other strategies depend on the session or the remote address of
+ * the request, which are not known when the toggle is evaluated, and are considered disabled.
+ *
+ * <p>Evaluations do not allocate, except for the rollout of user IDs or groups that are not made of
+ * ASCII characters, which is delegated to Unleash.
+ */
+final class ToggleSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ToggleSnapshot.class);
+
+  static final String DEFAULT_STRATEGY = "default";
+  static final String USER_WITH_ID_STRATEGY = "userWithId";
+  static final String USER_IDS_PARAM = "userIds";
+  static final String GRADUAL_ROLLOUT_USER_ID_STRATEGY = "gradualRolloutUserId";
+  static final String PERCENTAGE_PARAM = "percentage";
+  static final String GROUP_ID_PARAM = "groupId";
+  static final String APPLICATION_HOSTNAME_STRATEGY = "applicationHostname";
+  static final String HOST_NAMES_PARAM = "hostNames";
+  static final String GRADUAL_ROLLOUT_RANDOM_STRATEGY = "gradualRolloutRandom";
+
+  private static final int ONE_HUNDRED = 100;
+  private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+  /** Snapshot of a toggle that is not known. */
+  static final ToggleSnapshot UNKNOWN =
+      new ToggleSnapshot(null, false, emptyList(), ImmutableSet.of(), emptyList());
+
+  private final FeatureToggle source;
+  private final boolean enabledForAll;
+  private final int[] randomPercentages;
+  private final Set<String> userIds;
+  private final Rollout[] rollouts;
+
+  private ToggleSnapshot(
+      @Nullable FeatureToggle source,
+      boolean enabledForAll,
+      List<Integer> randomPercentages,
+      Set<String> userIds,
+      List<Rollout> rollouts) {
+    this.source = source;
+    this.enabledForAll = enabledForAll;
+    this.randomPercentages = Ints.toArray(randomPercentages);
+    this.userIds = userIds;
+    this.rollouts = rollouts.toArray(new Rollout[0]);
+  }
+
+  /**
+   * Precomputes the evaluation of the given toggle, which is {@code null} when not known.
+   *
+   * @param hostname host name of this Che server, as resolved by the {@code applicationHostname}
+   *     strategy of Unleash
+   */
+  static ToggleSnapshot of(@Nullable FeatureToggle toggle, String hostname) {
+    if (toggle == null) {
+      return UNKNOWN;
+    }
+    if (!toggle.isEnabled()) {
+      return new ToggleSnapshot(toggle, false, emptyList(), ImmutableSet.of(), emptyList());
+    }
+    boolean enabledForAll = false;
+    List<Integer> randomPercentages = new ArrayList<>();
+    ImmutableSet.Builder<String> userIds = ImmutableSet.builder();
+    List<Rollout> rollouts = new ArrayList<>();
+    for (ActivationStrategy strategy : toggle.getStrategies()) {
+      Map<String, String> parameters = strategy.getParameters();
+      switch (strategy.getName()) {
+        case DEFAULT_STRATEGY:
+          enabledForAll = true;
+          break;
+        case APPLICATION_HOSTNAME_STRATEGY:
+          String hostNames = parameters != null ? parameters.get(HOST_NAMES_PARAM) : null;
+          if (hostNames != null) {
+            for (String hostName : LIST_SPLITTER.split(hostNames)) {
+              if (hostName.equalsIgnoreCase(hostname)) {
+                enabledForAll = true;
+              }
+            }
+          }
+          break;
+        case GRADUAL_ROLLOUT_RANDOM_STRATEGY:
+          int randomPercentage =
+              parameters != null
+                  ? StrategyUtils.getPercentage(parameters.get(PERCENTAGE_PARAM))
+                  : 0;
+          if (randomPercentage > 0) {
+            randomPercentages.add(randomPercentage);
+          }
+          break;
+        case USER_WITH_ID_STRATEGY:
+          String ids = parameters != null ? parameters.get(USER_IDS_PARAM) : null;
+          if (ids != null) {
+            userIds.addAll(LIST_SPLITTER.split(ids));
+          }
+          break;
+        case GRADUAL_ROLLOUT_USER_ID_STRATEGY:
+          int percentage =
+              parameters != null
+                  ? StrategyUtils.getPercentage(parameters.get(PERCENTAGE_PARAM))
+                  : 0;
+          if (percentage > 0) {
+            String groupId = parameters.get(GROUP_ID_PARAM);
+            rollouts.add(new Rollout(groupId != null ? groupId : "", percentage));
+          }
+          break;
+        default:
+          LOG.warn(
+              "Strategy '{}' of feature toggle '{}' is not supported, it is considered disabled",
+              strategy.getName(),
+              toggle.getName());
+      }
+    }
+    return new ToggleSnapshot(toggle, enabledForAll, randomPercentages, userIds.build(), rollouts);
+  }
+
+  /** Returns whether this snapshot was computed from the given toggle instance. */
+  boolean isComputedFrom(@Nullable FeatureToggle toggle) {
+    return source == toggle;
+  }
+
+  /** Returns whether the toggle is enabled for the given user. */
+  boolean isEnabled(@Nullable String userId) {
+    if (enabledForAll) {
+      return true;
+    }
+    for (int randomPercentage : randomPercentages) {
+      if (ThreadLocalRandom.current().nextInt(ONE_HUNDRED) + 1 <= randomPercentage) {
+        return true;
+      }
+    }
+    if (userId == null) {
+      return false;
+    }
+    if (userIds.contains(userId)) {
+      return true;
+    }
+    for (Rollout rollout : rollouts) {
+      if (rollout.includes(userId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the same number as {@link StrategyUtils#getNormalizedNumber(String, String)}, i.e. the
+   * murmur3 32 bits hash of {@code groupId:userId} normalized between 1 and 100.
+   */
+  @VisibleForTesting
+  static int getNormalizedNumber(String userId, String groupId) {
+    return new Rollout(groupId, ONE_HUNDRED).getNormalizedNumber(userId);
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > 0x7f) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gradual rollout of the users of a group.
+   *
+   * <p>The murmur3 hash state after the {@code groupId:} prefix is computed once, so that only the
+   * characters of the user ID are hashed for each evaluation, without building the hashed string
+   * when the user ID and the group are made of ASCII characters.
+   */
+  private static final class Rollout {
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private final String groupId;
+    private final int percentage;
+    private final boolean asciiGroup;
+    private final int prefixLength;
+    private final int prefixHash;
+    private final int prefixPendingBlock;
+    private final int prefixPendingBytes;
+
+    private Rollout(String groupId, int percentage) {
+      this.groupId = groupId;
+      this.percentage = percentage;
+      this.asciiGroup = isAscii(groupId);
+      this.prefixLength = groupId.length() + 1;
+      int hash = 0;
+      int block = 0;
+      int pendingBytes = 0;
+      for (int i = 0; i < prefixLength; i++) {
+        block |= (i < groupId.length() ? groupId.charAt(i) : ':') << (pendingBytes << 3);
+        if (++pendingBytes == 4) {
+          hash = mixHash(hash, block);
+          block = 0;
+          pendingBytes = 0;
+        }
+      }
+      this.prefixHash = hash;
+      this.prefixPendingBlock = block;
+      this.prefixPendingBytes = pendingBytes;
+    }
+
+    private boolean includes(String userId) {
+      return getNormalizedNumber(userId) <= percentage;
+    }
+
+    private int getNormalizedNumber(String userId) {
+      if (!asciiGroup || !isAscii(userId)) {
+        return StrategyUtils.getNormalizedNumber(userId, groupId);
+      }
+      int hash = prefixHash;
+      int block = prefixPendingBlock;
+      int pendingBytes = prefixPendingBytes;
+      for (int i = 0; i < userId.length(); i++) {
+        block |= userId.charAt(i) << (pendingBytes << 3);
+        if (++pendingBytes == 4) {
+          hash = mixHash(hash, block);
+          block = 0;
+          pendingBytes = 0;
+        }
+      }
+      if (pendingBytes > 0) {
+        hash ^= mixBlock(block);
+      }
+      hash ^= prefixLength + userId.length();
+      hash ^= hash >>> 16;
+      hash *= 0x85ebca6b;
+      hash ^= hash >>> 13;
+      hash *= 0xc2b2ae35;
+      hash ^= hash >>> 16;
+      return (int) ((hash & 0xffffffffL) % ONE_HUNDRED) + 1;
+    }
+
+    private static int mixHash(int hash, int block) {
+      return Integer.rotateLeft(hash ^ mixBlock(block), 13) * 5 + 0xe6546b64;
+    }
+
+    private static int mixBlock(int block) {
+      return Integer.rotateLeft(block * C1, 15) * C2;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class CheServiceAccountTokenProviderTest {
+
+  private static final long DEFAULT_LIFETIME_MIN = 60;
+  private static final long REFRESH_BEFORE_EXPIRY_SEC = 300;
+  private static final long RETRY_DELAY_SEC = 30;
+
+  @Mock private ScheduledExecutorService refresher;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final List<Request> requests = new ArrayList<>();
+  private Deque<Response.Builder> responses;
+  private CheServiceAccountTokenProvider tokenProvider;
+
+  @BeforeMethod
+  public void setUp() {
+    nanos.set(0);
+    requests.clear();
+    responses = new ConcurrentLinkedDeque<>();
+    tokenProvider = createTokenProvider("serviceAccountId", "https://auth.openshift.io/api");
+  }
+
+  @Test
+  public void shouldRetrieveTokenWithClientCredentialsAtStartup() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+
+    // When
+    tokenProvider.start();
+
+    // Then
+    assertEquals(tokenProvider.getToken(), "token1");
+    assertEquals(requests.size(), 1);
+    Request request = requests.get(0);
+    assertEquals(request.url().toString(), "https://auth.openshift.io/api/token");
+    Buffer body = new Buffer();
+    request.body().writeTo(body);
+    assertEquals(
+        body.readUtf8(),
+        "grant_type=client_credentials&client_id=serviceAccountId&client_secret=secret");
+  }
+
+  @Test
+  public void shouldScheduleRefreshBeforeExpiry() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+
+    // When
+    tokenProvider.start();
+
+    // Then
+    verify(refresher)
+        .schedule(
+            any(Runnable.class),
+            eq(TimeUnit.SECONDS.toNanos(3600 - REFRESH_BEFORE_EXPIRY_SEC)),
+            eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void shouldRefreshShortLivedTokenAtHalfLife() throws Exception {
+    // Given
+    respondToken("token1", 60);
+
+    // When
+    tokenProvider.start();
+
+    // Then
+    verify(refresher)
+        .schedule(any(Runnable.class), eq(TimeUnit.SECONDS.toNanos(30)), eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void shouldUseDefaultLifetimeWhenResponseHasNoExpiration() throws Exception {
+    // Given
+    respond(200, "{\"access_token\": \"token1\"}");
+
+    // When
+    tokenProvider.start();
+
+    // Then
+    verify(refresher)
+        .schedule(
+            any(Runnable.class),
+            eq(
+                TimeUnit.MINUTES.toNanos(DEFAULT_LIFETIME_MIN)
+                    - TimeUnit.SECONDS.toNanos(REFRESH_BEFORE_EXPIRY_SEC)),
+            eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void shouldSwapTokenWhenRefreshed() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    respondToken("token2", 3600);
+    tokenProvider.start();
+    advanceSeconds(3600 - REFRESH_BEFORE_EXPIRY_SEC);
+
+    // When
+    tokenProvider.refresh();
+
+    // Then
+    assertEquals(tokenProvider.getToken(), "token2");
+    assertEquals(requests.size(), 2);
+  }
+
+  @Test
+  public void shouldKeepTokenAndRetryWhenRefreshFails() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    respond(503, "unavailable");
+    tokenProvider.start();
+    advanceSeconds(3600 - REFRESH_BEFORE_EXPIRY_SEC);
+
+    // When
+    tokenProvider.refresh();
+
+    // Then
+    assertEquals(tokenProvider.getToken(), "token1");
+    verify(refresher)
+        .schedule(
+            any(Runnable.class),
+            eq(TimeUnit.SECONDS.toNanos(RETRY_DELAY_SEC)),
+            eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test(
+      expectedExceptions = RuntimeException.class,
+      expectedExceptionsMessageRegExp = "Service account token retrieving failed.*")
+  public void shouldFailAtStartupWhenTokenCannotBeRetrieved() throws Exception {
+    // Given
+    respond(401, "unauthorized");
+
+    // When
+    tokenProvider.start();
+  }
+
+  @Test
+  public void shouldNotRetrieveTokenWhenServiceAccountIsNotConfigured() throws Exception {
+    // Given
+    tokenProvider = createTokenProvider(null, "https://auth.openshift.io/api");
+
+    // When
+    tokenProvider.start();
+
+    // Then
+    assertNull(tokenProvider.getToken());
+    assertEquals(requests.size(), 0);
+    verify(refresher, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  public void shouldPublishAgeOfToken() throws Exception {
+    // Given
+    MeterRegistry registry = new SimpleMeterRegistry();
+    tokenProvider.bindTo(registry);
+    respondToken("token1", 3600);
+    tokenProvider.start();
+
+    // When
+    advanceSeconds(42);
+
+    // Then
+    assertEquals(registry.get("service_account_token.age").gauge().value(), 42.0);
+  }
+
+  private CheServiceAccountTokenProvider createTokenProvider(
+      String serviceAccountId, String oidcProvider) {
+    OkHttpClient httpClient =
+        new OkHttpClient.Builder()
+            .addInterceptor(
+                chain -> {
+                  requests.add(chain.request());
+                  return responses.pop().request(chain.request()).build();
+                })
+            .build();
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+    return new CheServiceAccountTokenProvider(
+        serviceAccountId,
+        "secret",
+        oidcProvider,
+        httpClient,
+        DEFAULT_LIFETIME_MIN,
+        REFRESH_BEFORE_EXPIRY_SEC,
+        RETRY_DELAY_SEC,
+        ticker,
+        refresher);
+  }
+
+  private void respondToken(String token, long expiresInSec) {
+    respond(200, "{\"access_token\": \"" + token + "\", \"expires_in\": " + expiresInSec + "}");
+  }
+
+  private void respond(int code, String body) {
+    responses.add(
+        new Response.Builder()
+            .protocol(Protocol.HTTP_1_1)
+            .code(code)
+            .message("")
+            .body(ResponseBody.create(MediaType.parse("application/json"), body)));
+  }
+
+  private void advanceSeconds(long seconds) {
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import com.google.inject.Provider;
+import com.redhat.che.multitenant.multicluster.ClusterHealthTracker;
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.multicluster.MultiClusterOpenShiftProxy;
+import com.redhat.che.multitenant.tenantdata.ClusterCapacityIndex;
+import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
+import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
+import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import okhttp3.EventListener;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.workspace.infrastructure.kubernetes.cache.KubernetesRuntimeStateCache;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Routing of the requests of the OpenShift clients directly to a fake OpenShift API server. */
+@Listeners(MockitoTestNGListener.class)
+public class Fabric8OpenShiftClientFactoryDirectRoutingTest {
+
+  private static final String PROXY_URL = "https://proxy.openshift.io/";
+  private static final String POD_LIST = "{\"kind\": \"PodList\", \"apiVersion\": \"v1\"}";
+  private static final Subject USER = new SubjectImpl("user", "userId", "token", false);
+
+  @Mock private Provider<WorkspaceRuntimes> workspaceRuntimeProvider;
+  @Mock private WorkspaceSubjectsRegistry subjectsRegistry;
+  @Mock private KubernetesRuntimeStateCache runtimeStateCache;
+  @Mock private CheServiceAccountTokenToggle cheServiceAccountTokenToggle;
+  @Mock private TenantDataProvider tenantDataProvider;
+  @Mock private ClusterCapacityIndex clusterCapacityIndex;
+  @Mock private CheServiceAccountTokenProvider cheServiceAccountTokenProvider;
+  @Mock private OpenshiftUserTokenProvider openshiftUserTokenProvider;
+
+  private final List<String> authorizations = new CopyOnWriteArrayList<>();
+  private HttpServer apiServer;
+  private Fabric8OpenShiftClientFactory factory;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    authorizations.clear();
+    apiServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    apiServer.createContext(
+        "/api/v1/namespaces/user-che/pods",
+        exchange -> {
+          String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+          if (authorization == null) {
+            // challenged as by OpenShift, the OpenShift clients authenticate only then
+            exchange.sendResponseHeaders(401, -1);
+            exchange.close();
+            return;
+          }
+          authorizations.add(authorization);
+          byte[] body = POD_LIST.getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    apiServer.start();
+    String clusterUrl = "http://127.0.0.1:" + apiServer.getAddress().getPort() + "/";
+
+    when(tenantDataProvider.getUserCheTenantData(USER, "che"))
+        .thenReturn(new UserCheTenantData("user-che", clusterUrl, "prefix", false));
+    when(openshiftUserTokenProvider.getToken(USER)).thenReturn("openshiftToken");
+    DirectClusterRouting directClusterRouting = new DirectClusterRouting(true, 60);
+    Fabric8WorkspaceEnvironmentProvider envProvider =
+        new Fabric8WorkspaceEnvironmentProvider(
+            true,
+            new MultiClusterOpenShiftProxy(PROXY_URL),
+            cheServiceAccountTokenToggle,
+            tenantDataProvider,
+            clusterCapacityIndex,
+            cheServiceAccountTokenProvider,
+            directClusterRouting,
+            openshiftUserTokenProvider,
+            false);
+    factory =
+        new Fabric8OpenShiftClientFactory(
+            envProvider,
+            workspaceRuntimeProvider,
+            subjectsRegistry,
+            runtimeStateCache,
+            cheServiceAccountTokenToggle,
+            directClusterRouting,
+            new ClusterHealthTracker(directClusterRouting, 60, false, 0.5, 20, 300),
+            true,
+            1,
+            1,
+            1,
+            1,
+            EventListener.NONE,
+            100,
+            60);
+
+    EnvironmentContext.getCurrent().setSubject(USER);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    EnvironmentContext.reset();
+    apiServer.stop(0);
+  }
+
+  @Test
+  public void shouldSendRequestsDirectlyToClusterWithOpenShiftToken() throws Exception {
+    // When
+    factory.createOC().pods().inNamespace("user-che").list();
+    factory.create().pods().inNamespace("user-che").list();
+
+    // Then
+    assertEquals(authorizations.size(), 2);
+    assertEquals(authorizations.get(0), "Bearer openshiftToken");
+    assertEquals(authorizations.get(1), "Bearer openshiftToken");
+  }
+
+  @Test
+  public void shouldFallBackToProxyWhenOpenShiftClientRequestFails() throws Exception {
+    // Given
+    apiServer.stop(0);
+
+    // When
+    listPodsUnreachable(() -> factory.createOC().pods().inNamespace("user-che").list());
+
+    // Then
+    Config config = factory.buildConfig(new ConfigBuilder().build(), null);
+    assertEquals(config.getMasterUrl(), PROXY_URL);
+    assertEquals(config.getOauthToken(), "token");
+  }
+
+  @Test
+  public void shouldFallBackToProxyWhenKubernetesClientRequestFails() throws Exception {
+    // Given
+    apiServer.stop(0);
+
+    // When
+    listPodsUnreachable(() -> factory.create().pods().inNamespace("user-che").list());
+
+    // Then
+    Config config = factory.buildConfig(new ConfigBuilder().build(), null);
+    assertEquals(config.getMasterUrl(), PROXY_URL);
+  }
+
+  private static void listPodsUnreachable(ThrowingRunnable listPods) throws Exception {
+    try {
+      listPods.run();
+      fail("The API server should not be reachable");
+    } catch (KubernetesClientException e) {
+      // expected
+    }
+  }
+
+  private interface ThrowingRunnable {
+    void run() throws Exception;
+  }
+}
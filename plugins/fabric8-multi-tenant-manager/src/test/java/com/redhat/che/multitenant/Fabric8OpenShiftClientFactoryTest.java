@@ -14,24 +14,34 @@ package com.redhat.che.multitenant;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
-import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 import com.google.inject.Provider;
+import com.redhat.che.multitenant.multicluster.ClusterHealthTracker;
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
 import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
 import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
 import java.util.Optional;
 import okhttp3.EventListener;
 import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
 import org.eclipse.che.api.core.model.workspace.runtime.RuntimeIdentity;
 import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.api.workspace.server.spi.RuntimeContext;
+import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
 import org.eclipse.che.commons.env.EnvironmentContext;
 import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.dto.server.DtoFactory;
 import org.eclipse.che.workspace.infrastructure.kubernetes.cache.KubernetesRuntimeStateCache;
 import org.eclipse.che.workspace.infrastructure.kubernetes.model.KubernetesRuntimeState;
 import org.mockito.Mock;
@@ -47,10 +57,11 @@ public class Fabric8OpenShiftClientFactoryTest {
   private static final String CURRENT_USER_ID = "currentUserID";
   private static final String OWNER_USER_ID = "ownerUserID";
   private static final String GUESSED_NAMESPACE = "guessedNamespace";
+  private static final UserCheTenantData TENANT_DATA =
+      new UserCheTenantData("user-che", "https://api.cluster.openshift.com/", "prefix", false);
 
   @Mock private Fabric8WorkspaceEnvironmentProvider environmentProvider;
   @Mock private Config defaultConfig;
-  @Mock private Config expectedConfig;
   @Mock private Provider<WorkspaceRuntimes> workspaceRuntimeProvider;
   @Mock private WorkspaceRuntimes workspaceRuntimes;
   @Mock private WorkspaceSubjectsRegistry subjectsRegistry;
@@ -67,6 +78,13 @@ public class Fabric8OpenShiftClientFactoryTest {
 
   @Mock private RuntimeIdentity runtimeIdentity;
 
+  private final Config expectedConfig =
+      new ConfigBuilder()
+          .withMasterUrl("https://api.cluster.openshift.com/")
+          .withNamespace("user-che")
+          .withOauthToken("openshiftToken")
+          .withImpersonateUsername(OWNER_USER_ID)
+          .build();
   private Fabric8OpenShiftClientFactory factory;
 
   @BeforeMethod
@@ -75,9 +93,10 @@ public class Fabric8OpenShiftClientFactoryTest {
         .doThrow(new InfrastructureException("null subject"))
         .when(environmentProvider)
         .getWorkspacesOpenshiftConfig(null);
+    lenient().doReturn(TENANT_DATA).when(environmentProvider).getUserCheTenantData(any());
     doReturn(expectedConfig)
         .when(environmentProvider)
-        .getWorkspacesOpenshiftConfig(any(Subject.class));
+        .getWorkspacesOpenshiftConfig(any(Subject.class), eq(TENANT_DATA));
     when(workspaceRuntimeProvider.get()).thenReturn(workspaceRuntimes);
     when(workspaceRuntimes.getRuntimeContext(WS_ID)).thenReturn(Optional.of(runtimeContext));
     when(currentSubject.getUserId()).thenReturn(CURRENT_USER_ID);
@@ -85,6 +104,7 @@ public class Fabric8OpenShiftClientFactoryTest {
     when(runtimeIdentity.getOwnerId()).thenReturn(OWNER_USER_ID);
     lenient().when(subjectsRegistry.getSubject(OWNER_USER_ID)).thenReturn(ownerSubject);
 
+    DirectClusterRouting directClusterRouting = new DirectClusterRouting(false, 60);
     factory =
         new Fabric8OpenShiftClientFactory(
             environmentProvider,
@@ -92,12 +112,16 @@ public class Fabric8OpenShiftClientFactoryTest {
             subjectsRegistry,
             runtimeStateCache,
             cheServiceAccountTokenToggle,
+            directClusterRouting,
+            new ClusterHealthTracker(directClusterRouting, 60, false, 0.5, 20, 300),
             true,
             1,
             1,
             1,
             1,
-            eventListener);
+            eventListener,
+            100,
+            60);
 
     EnvironmentContext.getCurrent().setSubject(currentSubject);
   }
@@ -105,15 +129,15 @@ public class Fabric8OpenShiftClientFactoryTest {
   @AfterMethod
   public void tearDown() throws Exception {
     EnvironmentContext.reset();
-    verifyZeroInteractions(expectedConfig, defaultConfig);
+    verifyZeroInteractions(defaultConfig);
   }
 
   @Test
   public void returnsConfigUsingCurrentSubjectWhenWsIdIsNull() throws Exception {
     Config config = factory.buildConfig(defaultConfig, null);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 
   @Test
@@ -123,8 +147,8 @@ public class Fabric8OpenShiftClientFactoryTest {
 
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 
   @Test
@@ -133,8 +157,8 @@ public class Fabric8OpenShiftClientFactoryTest {
 
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 
   @Test
@@ -145,8 +169,8 @@ public class Fabric8OpenShiftClientFactoryTest {
 
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 
   @Test
@@ -157,11 +181,12 @@ public class Fabric8OpenShiftClientFactoryTest {
     when(runtimeStateCache.get(any())).thenReturn(Optional.of(runtimeState));
     when(runtimeState.getNamespace()).thenReturn(GUESSED_NAMESPACE);
     when(cheServiceAccountTokenToggle.useCheServiceAccountToken(OWNER_USER_ID)).thenReturn(false);
+    doReturn(false).when(cheServiceAccountTokenToggle).useCheServiceAccountToken(CURRENT_USER_ID);
 
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 
   @Test
@@ -175,16 +200,94 @@ public class Fabric8OpenShiftClientFactoryTest {
 
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
+    assertSame(config, expectedConfig);
     verify(environmentProvider)
-        .getWorkspacesOpenshiftConfig(eq(new GuessedSubject(OWNER_USER_ID, GUESSED_NAMESPACE)));
+        .getWorkspacesOpenshiftConfig(
+            eq(new GuessedSubject(OWNER_USER_ID, GUESSED_NAMESPACE)), eq(TENANT_DATA));
   }
 
   @Test
   public void returnsConfigUsingOwnerSubject() throws Exception {
     Config config = factory.buildConfig(defaultConfig, WS_ID);
 
-    assertEquals(config, expectedConfig);
-    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(ownerSubject));
+    assertSame(config, expectedConfig);
+    verify(environmentProvider).getWorkspacesOpenshiftConfig(eq(ownerSubject), eq(TENANT_DATA));
+  }
+
+  @Test
+  public void reusesConfigBuiltForSameWorkspaceAndUser() throws Exception {
+    factory.buildConfig(defaultConfig, WS_ID);
+    Config config = factory.buildConfig(defaultConfig, WS_ID);
+
+    assertSame(config, expectedConfig);
+    verify(environmentProvider, times(1))
+        .getWorkspacesOpenshiftConfig(eq(ownerSubject), eq(TENANT_DATA));
+  }
+
+  @Test
+  public void checksClusterCapacityWithCachedTenantDataWhenReusingConfig() throws Exception {
+    when(ownerSubject.getToken()).thenReturn("token");
+    factory.buildConfig(defaultConfig, WS_ID);
+    verify(environmentProvider, never()).checkClusterCapacity(any(), any());
+
+    factory.buildConfig(defaultConfig, WS_ID);
+
+    verify(environmentProvider).checkClusterCapacity(eq(TENANT_DATA), eq("token"));
+    verify(environmentProvider, times(1)).getUserCheTenantData(any());
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = "out of capacity")
+  public void throwsWhenClusterOfReusedConfigIsOutOfCapacity() throws Exception {
+    doThrow(new InfrastructureException("out of capacity"))
+        .when(environmentProvider)
+        .checkClusterCapacity(eq(TENANT_DATA), any());
+    factory.buildConfig(defaultConfig, WS_ID);
+
+    factory.buildConfig(defaultConfig, WS_ID);
+  }
+
+  @Test
+  public void buildsNewConfigWhenTokenOfUserChanges() throws Exception {
+    when(ownerSubject.getUserId()).thenReturn(OWNER_USER_ID);
+    when(ownerSubject.getToken()).thenReturn("token", "refreshedToken");
+
+    factory.buildConfig(defaultConfig, WS_ID);
+    factory.buildConfig(defaultConfig, WS_ID);
+
+    verify(environmentProvider, times(2))
+        .getWorkspacesOpenshiftConfig(eq(ownerSubject), eq(TENANT_DATA));
+  }
+
+  @Test
+  public void buildsNewConfigWhenServiceAccountTokenToggleFlips() throws Exception {
+    when(ownerSubject.getUserId()).thenReturn(OWNER_USER_ID);
+    when(cheServiceAccountTokenToggle.useCheServiceAccountToken(OWNER_USER_ID))
+        .thenReturn(false, true);
+
+    factory.buildConfig(defaultConfig, WS_ID);
+    factory.buildConfig(defaultConfig, WS_ID);
+
+    verify(environmentProvider, times(2))
+        .getWorkspacesOpenshiftConfig(eq(ownerSubject), eq(TENANT_DATA));
+  }
+
+  @Test
+  public void buildsNewConfigAfterWorkspaceStops() throws Exception {
+    factory.buildConfig(defaultConfig, WS_ID);
+    factory.buildConfig(defaultConfig, null);
+
+    factory.onEvent(
+        DtoFactory.newDto(WorkspaceStatusEvent.class)
+            .withWorkspaceId(WS_ID)
+            .withStatus(WorkspaceStatus.STOPPED));
+    factory.buildConfig(defaultConfig, WS_ID);
+    factory.buildConfig(defaultConfig, null);
+
+    verify(environmentProvider, times(2))
+        .getWorkspacesOpenshiftConfig(eq(ownerSubject), eq(TENANT_DATA));
+    verify(environmentProvider, times(1))
+        .getWorkspacesOpenshiftConfig(eq(currentSubject), eq(TENANT_DATA));
   }
 }
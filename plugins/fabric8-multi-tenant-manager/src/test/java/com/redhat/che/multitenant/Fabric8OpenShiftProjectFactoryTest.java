@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.multicluster.MultiClusterOpenShiftProxy;
+import com.redhat.che.multitenant.tenantdata.ClusterCapacityIndex;
+import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
+import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
+import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
+import org.eclipse.che.api.core.model.workspace.runtime.RuntimeIdentity;
+import org.eclipse.che.api.user.server.PreferenceManager;
+import org.eclipse.che.api.user.server.UserManager;
+import org.eclipse.che.api.workspace.server.model.impl.RuntimeIdentityImpl;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.api.workspace.server.spi.NamespaceResolutionContext;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.workspace.infrastructure.kubernetes.CheServerKubernetesClientFactory;
+import org.eclipse.che.workspace.infrastructure.kubernetes.util.KubernetesSharedPool;
+import org.eclipse.che.workspace.infrastructure.openshift.OpenShiftClientFactory;
+import org.eclipse.che.workspace.infrastructure.openshift.project.OpenShiftProject;
+import org.eclipse.che.workspace.infrastructure.openshift.provision.OpenShiftStopWorkspaceRoleProvisioner;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class Fabric8OpenShiftProjectFactoryTest {
+
+  private static final String WORKSPACE_ID = "workspace123";
+
+  @Mock private OpenShiftClientFactory clientFactory;
+  @Mock private CheServerKubernetesClientFactory cheServerKubernetesClientFactory;
+  @Mock private OpenShiftStopWorkspaceRoleProvisioner stopWorkspaceRoleProvisioner;
+  @Mock private CheServiceAccountTokenToggle cheServiceAccountTokenToggle;
+  @Mock private TenantDataProvider tenantDataProvider;
+  @Mock private ClusterCapacityIndex clusterCapacityIndex;
+  @Mock private CheServiceAccountTokenProvider cheServiceAccountTokenProvider;
+  @Mock private OpenshiftUserTokenProvider openshiftUserTokenProvider;
+  @Mock private UserManager userManager;
+  @Mock private PreferenceManager preferenceManager;
+  @Mock private KubernetesSharedPool sharedPool;
+
+  private Fabric8OpenShiftProjectFactory projectFactory;
+
+  @BeforeMethod
+  public void setUp() {
+    Fabric8WorkspaceEnvironmentProvider envProvider =
+        new Fabric8WorkspaceEnvironmentProvider(
+            true,
+            new MultiClusterOpenShiftProxy("https://proxy.openshift.io/"),
+            cheServiceAccountTokenToggle,
+            tenantDataProvider,
+            clusterCapacityIndex,
+            cheServiceAccountTokenProvider,
+            new DirectClusterRouting(false, 60),
+            openshiftUserTokenProvider,
+            false);
+    projectFactory =
+        new Fabric8OpenShiftProjectFactory(
+            null,
+            "<username>-che",
+            clientFactory,
+            cheServerKubernetesClientFactory,
+            stopWorkspaceRoleProvisioner,
+            envProvider,
+            userManager,
+            preferenceManager,
+            sharedPool,
+            null,
+            60);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    EnvironmentContext.reset();
+  }
+
+  @Test
+  public void shouldLookUpTenantDataOncePerWorkspaceStart() throws Exception {
+    // Given
+    Subject user = newSubject("user");
+    returnTenantData(user, "user-che");
+    EnvironmentContext.getCurrent().setSubject(user);
+
+    // When
+    String namespace = startWorkspace(user);
+
+    // Then
+    assertEquals(namespace, "user-che");
+    verify(tenantDataProvider, times(1)).getUserCheTenantData(user, "che");
+  }
+
+  @Test
+  public void shouldLookUpTenantDataOfEachSubject() throws Exception {
+    // Given
+    Subject user = newSubject("user");
+    Subject other = newSubject("other");
+    returnTenantData(user, "user-che");
+    returnTenantData(other, "other-che");
+
+    // When
+    EnvironmentContext.getCurrent().setSubject(user);
+    String userNamespace = startWorkspace(user);
+    EnvironmentContext.getCurrent().setSubject(other);
+    String otherNamespace = startWorkspace(other);
+
+    // Then
+    assertEquals(userNamespace, "user-che");
+    assertEquals(otherNamespace, "other-che");
+    verify(tenantDataProvider, times(1)).getUserCheTenantData(user, "che");
+    verify(tenantDataProvider, times(1)).getUserCheTenantData(other, "che");
+  }
+
+  @Test
+  public void shouldLookUpTenantDataAgainForNewSubjectOfSameUser() throws Exception {
+    // Given
+    Subject user = newSubject("user");
+    // equal to the first subject, but created by another request
+    Subject nextRequestUser = newSubject("user");
+    returnTenantData(user, "user-che");
+    EnvironmentContext.getCurrent().setSubject(user);
+    projectFactory.evaluateNamespaceName(new NamespaceResolutionContext(user));
+
+    // When
+    EnvironmentContext.getCurrent().setSubject(nextRequestUser);
+    projectFactory.evaluateNamespaceName(new NamespaceResolutionContext(nextRequestUser));
+
+    // Then
+    verify(tenantDataProvider, times(2)).getUserCheTenantData(user, "che");
+  }
+
+  @Test
+  public void shouldNotMemoizeFailedLookup() throws Exception {
+    // Given
+    Subject user = newSubject("user");
+    doThrow(new InfrastructureException("tenant service unavailable"))
+        .doReturn(new UserCheTenantData("user-che", "https://cluster/", "prefix", false))
+        .when(tenantDataProvider)
+        .getUserCheTenantData(user, "che");
+    EnvironmentContext.getCurrent().setSubject(user);
+    NamespaceResolutionContext ctx = new NamespaceResolutionContext(user);
+
+    // When
+    String failed = projectFactory.evalPlaceholders("<userid>-che", ctx);
+    String namespace = projectFactory.evaluateNamespaceName(ctx);
+
+    // Then
+    assertNull(failed);
+    assertEquals(namespace, "user-che");
+    verify(tenantDataProvider, times(2)).getUserCheTenantData(user, "che");
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = "The anonymous subject is used.*")
+  public void shouldRejectAnonymousSubject() throws Exception {
+    // Given
+    EnvironmentContext.getCurrent().setSubject(Subject.ANONYMOUS);
+
+    try {
+      // When
+      projectFactory.evaluateNamespaceName(new NamespaceResolutionContext(Subject.ANONYMOUS));
+    } finally {
+      // Then
+      verify(tenantDataProvider, never()).getUserCheTenantData(any(Subject.class), any());
+    }
+  }
+
+  @Test
+  public void shouldCreateNewProjectForEachOperationOnWorkspace() throws Exception {
+    // Given
+    Subject user = newSubject("user");
+    returnTenantData(user, "user-che");
+    EnvironmentContext.getCurrent().setSubject(user);
+    OpenShiftProject project = projectFactory.getOrCreate(identity(WORKSPACE_ID, user));
+
+    // When
+    OpenShiftProject next = projectFactory.getOrCreate(identity(WORKSPACE_ID, user));
+
+    // Then
+    assertNotSame(next, project);
+    assertEquals(next.getWorkspaceId(), WORKSPACE_ID);
+    assertEquals(next.getName(), "user-che");
+    verify(tenantDataProvider, times(1)).getUserCheTenantData(user, "che");
+  }
+
+  /** Evaluates the namespace of a workspace as the workspace runtimes do during its start. */
+  private String startWorkspace(Subject subject) throws InfrastructureException {
+    NamespaceResolutionContext ctx =
+        new NamespaceResolutionContext(WORKSPACE_ID, subject.getUserId(), subject.getUserName());
+    String namespace = projectFactory.evaluateNamespaceName(ctx);
+    projectFactory.evaluateLegacyNamespaceName(ctx);
+    projectFactory.evalPlaceholders("<userid>-che", ctx);
+    projectFactory.evalPlaceholders("<userid>-che", subject, WORKSPACE_ID);
+    OpenShiftProject project = projectFactory.getOrCreate(identity(WORKSPACE_ID, subject));
+    assertEquals(project.getName(), namespace);
+    return namespace;
+  }
+
+  private RuntimeIdentity identity(String workspaceId, Subject owner) {
+    return new RuntimeIdentityImpl(workspaceId, "default", owner.getUserId(), null);
+  }
+
+  private Subject newSubject(String name) {
+    return new SubjectImpl(name, name + "Id", name + "Token", false);
+  }
+
+  private void returnTenantData(Subject subject, String namespace) throws Exception {
+    doReturn(new UserCheTenantData(namespace, "https://cluster/", "prefix", false))
+        .when(tenantDataProvider)
+        .getUserCheTenantData(subject, "che");
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.redhat.che.multitenant.multicluster.DirectClusterRouting;
+import com.redhat.che.multitenant.multicluster.MultiClusterOpenShiftProxy;
+import com.redhat.che.multitenant.tenantdata.ClusterCapacityIndex;
+import com.redhat.che.multitenant.tenantdata.TenantDataProvider;
+import com.redhat.che.multitenant.tenantdata.UserCheTenantData;
+import com.redhat.che.multitenant.toggle.CheServiceAccountTokenToggle;
+import io.fabric8.kubernetes.client.Config;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class Fabric8WorkspaceEnvironmentProviderTest {
+
+  private static final String PROXY_URL = "https://proxy.openshift.io/";
+  private static final Subject USER = new SubjectImpl("user", "userId", "token", false);
+  private static final Subject OTHER_USER =
+      new SubjectImpl("other", "otherId", "otherToken", false);
+
+  @Mock private CheServiceAccountTokenToggle cheServiceAccountTokenToggle;
+  @Mock private TenantDataProvider tenantDataProvider;
+  @Mock private ClusterCapacityIndex clusterCapacityIndex;
+  @Mock private CheServiceAccountTokenProvider cheServiceAccountTokenProvider;
+  @Mock private OpenshiftUserTokenProvider openshiftUserTokenProvider;
+
+  private Fabric8WorkspaceEnvironmentProvider environmentProvider;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    when(tenantDataProvider.getUserCheTenantData(USER, "che"))
+        .thenReturn(new UserCheTenantData("user-che", "https://cluster/", "prefix", false));
+    environmentProvider = createEnvironmentProvider(false);
+  }
+
+  @Test
+  public void shouldBuildConfigWithUserNamespaceAndToken() throws Exception {
+    // When
+    Config config = environmentProvider.getWorkspacesOpenshiftConfig(USER);
+
+    // Then
+    assertEquals(config.getMasterUrl(), PROXY_URL);
+    assertEquals(config.isTrustCerts(), true);
+    assertEquals(config.getNamespace(), "user-che");
+    assertEquals(config.getOauthToken(), "token");
+    assertNull(config.getRequestConfig().getImpersonateUsername());
+  }
+
+  @Test
+  public void shouldNotShareUserSettingsBetweenConfigs() throws Exception {
+    // Given
+    doReturn(new UserCheTenantData("other-che", "https://cluster/", "prefix", false))
+        .when(tenantDataProvider)
+        .getUserCheTenantData(OTHER_USER, "che");
+    when(cheServiceAccountTokenToggle.useCheServiceAccountToken(anyString()))
+        .thenAnswer(invocation -> "userId".equals(invocation.getArgument(0)));
+    when(cheServiceAccountTokenProvider.getToken()).thenReturn("serviceAccountToken");
+
+    // When
+    Config impersonating = environmentProvider.getWorkspacesOpenshiftConfig(USER);
+    Config config = environmentProvider.getWorkspacesOpenshiftConfig(OTHER_USER);
+
+    // Then
+    assertEquals(impersonating.getRequestConfig().getImpersonateUsername(), "userId");
+    assertEquals(impersonating.getNamespace(), "user-che");
+    assertEquals(impersonating.getOauthToken(), "serviceAccountToken");
+    assertNull(config.getRequestConfig().getImpersonateUsername());
+    assertEquals(config.getNamespace(), "other-che");
+    assertEquals(config.getOauthToken(), "otherToken");
+  }
+
+  @Test
+  public void shouldBuildConfigForClusterOfUserWhenRoutedDirectly() throws Exception {
+    // Given
+    environmentProvider = createEnvironmentProvider(true);
+    when(openshiftUserTokenProvider.getToken(USER)).thenReturn("openshiftToken");
+
+    // When
+    Config config = environmentProvider.getWorkspacesOpenshiftConfig(USER);
+
+    // Then
+    assertEquals(config.getMasterUrl(), "https://cluster/");
+    assertEquals(config.getNamespace(), "user-che");
+    assertEquals(config.getOauthToken(), "openshiftToken");
+  }
+
+  @Test
+  public void shouldRouteThroughProxyWhenServiceAccountTokenIsUsed() throws Exception {
+    // Given
+    environmentProvider = createEnvironmentProvider(true);
+    when(cheServiceAccountTokenToggle.useCheServiceAccountToken("userId")).thenReturn(true);
+    when(cheServiceAccountTokenProvider.getToken()).thenReturn("serviceAccountToken");
+
+    // When
+    Config config = environmentProvider.getWorkspacesOpenshiftConfig(USER);
+
+    // Then
+    assertEquals(config.getMasterUrl(), PROXY_URL);
+    assertEquals(config.getOauthToken(), "serviceAccountToken");
+    assertEquals(config.getRequestConfig().getImpersonateUsername(), "userId");
+  }
+
+  @Test
+  public void shouldRouteThroughProxyWhenOpenShiftTokenCannotBeRetrieved() throws Exception {
+    // Given
+    environmentProvider = createEnvironmentProvider(true);
+    doThrow(new InfrastructureException("unavailable"))
+        .when(openshiftUserTokenProvider)
+        .getToken(USER);
+
+    // When
+    Config config = environmentProvider.getWorkspacesOpenshiftConfig(USER);
+
+    // Then
+    assertEquals(config.getMasterUrl(), PROXY_URL);
+    assertEquals(config.getOauthToken(), "token");
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = ".*out of capacity")
+  public void shouldCheckUpToDateCapacityOfClusterOfUser() throws Exception {
+    // Given
+    when(clusterCapacityIndex.isCapacityExhausted(any(), eq("token"))).thenReturn(true);
+
+    // When
+    environmentProvider.getWorkspacesOpenshiftConfig(USER);
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = ".*out of capacity")
+  public void shouldCheckUpToDateCapacityOfClusterOfGivenTenantData() throws Exception {
+    // Given
+    UserCheTenantData tenantData =
+        new UserCheTenantData("user-che", "https://cluster/", "prefix", false);
+    when(clusterCapacityIndex.isCapacityExhausted(tenantData, "token")).thenReturn(true);
+
+    // When
+    environmentProvider.checkClusterCapacity(tenantData, "token");
+  }
+
+  private Fabric8WorkspaceEnvironmentProvider createEnvironmentProvider(boolean directRouting) {
+    return new Fabric8WorkspaceEnvironmentProvider(
+        true,
+        new MultiClusterOpenShiftProxy(PROXY_URL),
+        cheServiceAccountTokenToggle,
+        tenantDataProvider,
+        clusterCapacityIndex,
+        cheServiceAccountTokenProvider,
+        new DirectClusterRouting(directRouting, 60),
+        openshiftUserTokenProvider,
+        false);
+  }
+}
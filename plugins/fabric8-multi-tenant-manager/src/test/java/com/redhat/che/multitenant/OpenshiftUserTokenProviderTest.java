@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class OpenshiftUserTokenProviderTest {
+
+  private static final Subject SUBJECT = new SubjectImpl("name", "userId", "keycloakToken", false);
+  private static final long DEFAULT_LIFETIME_MIN = 10;
+  private static final long REFRESH_BEFORE_EXPIRY_SEC = 300;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final AtomicInteger requests = new AtomicInteger();
+  private Deque<Response.Builder> responses;
+  private OpenshiftUserTokenProvider tokenProvider;
+
+  @BeforeMethod
+  public void setUp() {
+    nanos.set(0);
+    requests.set(0);
+    responses = new ConcurrentLinkedDeque<>();
+    tokenProvider =
+        createTokenProvider(
+            chain -> {
+              requests.incrementAndGet();
+              return responses.pop().request(chain.request()).build();
+            });
+  }
+
+  private OpenshiftUserTokenProvider createTokenProvider(Interceptor authService) {
+    OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(authService).build();
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+    return new OpenshiftUserTokenProvider(
+        "https://auth.openshift.io/api",
+        null,
+        null,
+        httpClient,
+        false,
+        500,
+        DEFAULT_LIFETIME_MIN,
+        REFRESH_BEFORE_EXPIRY_SEC,
+        ticker,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  @Test
+  public void shouldCacheTokenUntilItExpires() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    respondToken("token2", 3600);
+
+    // When
+    String first = tokenProvider.getToken(SUBJECT);
+    advanceSeconds(3600 - REFRESH_BEFORE_EXPIRY_SEC - 1);
+    String beforeRefresh = tokenProvider.getToken(SUBJECT);
+    advanceSeconds(REFRESH_BEFORE_EXPIRY_SEC + 1);
+    String afterExpiry = tokenProvider.getToken(SUBJECT);
+
+    // Then
+    assertEquals(first, "token1");
+    assertEquals(beforeRefresh, "token1");
+    assertEquals(afterExpiry, "token2");
+    assertEquals(requests.get(), 2);
+  }
+
+  @Test
+  public void shouldServeCachedTokenWhileRefreshingItBeforeExpiry() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    respondToken("token2", 3600);
+    tokenProvider.getToken(SUBJECT);
+    advanceSeconds(3600 - REFRESH_BEFORE_EXPIRY_SEC);
+
+    // When
+    String duringRefresh = tokenProvider.getToken(SUBJECT);
+    String afterRefresh = tokenProvider.getToken(SUBJECT);
+
+    // Then
+    assertEquals(duringRefresh, "token1");
+    assertEquals(afterRefresh, "token2");
+    assertEquals(requests.get(), 2);
+  }
+
+  @Test
+  public void shouldRefreshShortLivedTokensAtHalfLife() throws Exception {
+    // Given
+    respondToken("token1", 60);
+    respondToken("token2", 60);
+    tokenProvider.getToken(SUBJECT);
+
+    // When
+    advanceSeconds(29);
+    tokenProvider.getToken(SUBJECT);
+    advanceSeconds(1);
+    tokenProvider.getToken(SUBJECT);
+
+    // Then
+    assertEquals(tokenProvider.getToken(SUBJECT), "token2");
+    assertEquals(requests.get(), 2);
+  }
+
+  @Test
+  public void shouldUseDefaultLifetimeWhenResponseHasNoExpiration() throws Exception {
+    // Given
+    respond(200, "{\"access_token\":\"token1\"}");
+    respond(200, "{\"access_token\":\"token2\"}");
+    tokenProvider.getToken(SUBJECT);
+
+    // When
+    advanceSeconds(TimeUnit.MINUTES.toSeconds(DEFAULT_LIFETIME_MIN));
+
+    // Then
+    assertEquals(tokenProvider.getToken(SUBJECT), "token2");
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = "Could not retrieve OSO token from Keycloak token .*")
+  public void shouldNeverServeExpiredTokenWhenRefreshFails() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    respond(500, "unavailable");
+    respond(500, "unavailable");
+    tokenProvider.getToken(SUBJECT);
+    advanceSeconds(3600 - REFRESH_BEFORE_EXPIRY_SEC);
+    assertEquals(tokenProvider.getToken(SUBJECT), "token1");
+
+    // When
+    advanceSeconds(REFRESH_BEFORE_EXPIRY_SEC);
+    tokenProvider.getToken(SUBJECT);
+  }
+
+  @Test
+  public void shouldRetrieveTokenAsynchronouslyAndCacheIt() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+
+    // When
+    String token =
+        tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+
+    // Then
+    assertEquals(token, "token1");
+    assertEquals(tokenProvider.getToken(SUBJECT), "token1");
+    assertEquals(requests.get(), 1);
+  }
+
+  @Test
+  public void shouldReturnCachedTokenInCompletedFuture() throws Exception {
+    // Given
+    respondToken("token1", 3600);
+    tokenProvider.getToken(SUBJECT);
+
+    // When
+    CompletableFuture<String> future = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+
+    // Then
+    assertTrue(future.isDone());
+    assertEquals(future.get(), "token1");
+    assertEquals(requests.get(), 1);
+  }
+
+  @Test
+  public void shouldFailAsynchronousRetrievalWithInfrastructureException() throws Exception {
+    // Given
+    respond(500, "unavailable");
+
+    // When
+    CompletableFuture<String> future = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+
+    // Then
+    assertCause(future, InfrastructureException.class);
+  }
+
+  @Test
+  public void shouldFailAsynchronousRetrievalWhenTimeoutIsExceeded() throws Exception {
+    // Given
+    tokenProvider = createTokenProvider(OpenshiftUserTokenProviderTest::waitForCancellation);
+
+    // When
+    CompletableFuture<String> future =
+        tokenProvider.getTokenAsync(SUBJECT, 100, TimeUnit.MILLISECONDS);
+
+    // Then
+    assertCause(future, InfrastructureException.class);
+  }
+
+  @Test
+  public void shouldCancelRetrievalWhenFutureIsCancelled() throws Exception {
+    // Given
+    CountDownLatch requested = new CountDownLatch(1);
+    AtomicReference<Call> call = new AtomicReference<>();
+    tokenProvider =
+        createTokenProvider(
+            chain -> {
+              call.set(chain.call());
+              requested.countDown();
+              return waitForCancellation(chain);
+            });
+    CompletableFuture<String> future = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+    assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+    // When
+    future.cancel(true);
+
+    // Then
+    assertTrue(call.get().isCanceled());
+  }
+
+  @Test
+  public void shouldShareRetrievalBetweenConcurrentAsynchronousCalls() throws Exception {
+    // Given
+    CountDownLatch released = new CountDownLatch(1);
+    tokenProvider =
+        createTokenProvider(
+            chain -> {
+              requests.incrementAndGet();
+              awaitRelease(released);
+              return responses.pop().request(chain.request()).build();
+            });
+    respondToken("token1", 3600);
+    respondToken("token2", 3600);
+
+    // When
+    CompletableFuture<String> first = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+    CompletableFuture<String> second = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+    released.countDown();
+
+    // Then
+    assertEquals(first.get(5, TimeUnit.SECONDS), "token1");
+    assertEquals(second.get(5, TimeUnit.SECONDS), "token1");
+    assertEquals(requests.get(), 1);
+  }
+
+  @Test
+  public void shouldKeepRetrievingWhileOtherCallsWaitForIt() throws Exception {
+    // Given
+    CountDownLatch released = new CountDownLatch(1);
+    tokenProvider =
+        createTokenProvider(
+            chain -> {
+              awaitRelease(released);
+              return responses.pop().request(chain.request()).build();
+            });
+    respondToken("token1", 3600);
+    CompletableFuture<String> first = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+    CompletableFuture<String> second = tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS);
+
+    // When
+    first.cancel(true);
+    released.countDown();
+
+    // Then
+    assertEquals(second.get(5, TimeUnit.SECONDS), "token1");
+  }
+
+  @Test
+  public void shouldTimeAndCountAsynchronousRetrievals() throws Exception {
+    // Given
+    MeterRegistry registry = new SimpleMeterRegistry();
+    tokenProvider.bindTo(registry);
+    respondToken("token1", 3600);
+    respond(500, "unavailable");
+    SubjectImpl otherSubject = new SubjectImpl("other", "otherId", "otherKeycloakToken", false);
+
+    // When
+    tokenProvider.getTokenAsync(SUBJECT, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+    assertCause(
+        tokenProvider.getTokenAsync(otherSubject, 5, TimeUnit.SECONDS),
+        InfrastructureException.class);
+
+    // Then
+    assertEquals(
+        registry.get("cache.load.latency").tags("cache", "fabric8_user_token").timer().count(), 2);
+    assertEquals(
+        registry
+            .get("cache.gets")
+            .tags("cache", "fabric8_user_token", "result", "miss")
+            .functionCounter()
+            .count(),
+        2.0);
+    assertEquals(
+        registry
+            .get("cache.load")
+            .tags("cache", "fabric8_user_token", "result", "success")
+            .functionCounter()
+            .count(),
+        1.0);
+    assertEquals(
+        registry
+            .get("cache.load")
+            .tags("cache", "fabric8_user_token", "result", "failure")
+            .functionCounter()
+            .count(),
+        1.0);
+  }
+
+  private static void awaitRelease(CountDownLatch released) throws IOException {
+    try {
+      if (!released.await(5, TimeUnit.SECONDS)) {
+        throw new IOException("Not released");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /** Stands in for a network call that only ends when it is cancelled. */
+  private static Response waitForCancellation(Interceptor.Chain chain) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!chain.call().isCanceled() && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    throw new IOException("Canceled");
+  }
+
+  private static void assertCause(CompletableFuture<?> future, Class<?> causeType)
+      throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Token retrieval is expected to fail");
+    } catch (ExecutionException e) {
+      assertTrue(causeType.isInstance(e.getCause()), "Unexpected cause: " + e.getCause());
+    }
+  }
+
+  private void respondToken(String token, long expiresIn) {
+    respond(200, "{\"access_token\":\"" + token + "\",\"expires_in\":" + expiresIn + "}");
+  }
+
+  private void respond(int code, String body) {
+    responses.add(
+        new Response.Builder()
+            .protocol(Protocol.HTTP_1_1)
+            .code(code)
+            .message("status")
+            .body(ResponseBody.create(MediaType.parse("application/json"), body)));
+  }
+
+  private void advanceSeconds(long seconds) {
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
@@ -14,7 +14,10 @@ package com.redhat.che.multitenant;
 import static com.google.common.collect.ImmutableMap.of;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
@@ -35,6 +38,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.eclipse.che.api.core.model.workspace.runtime.RuntimeIdentity;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.commons.env.EnvironmentContext;
@@ -81,6 +85,7 @@ public class RhCheInfraEnvironmentProvisionerTest {
   private static final String CLUSTER_URL = "https://api.starter-us-east-2.openshift.com/";
   private static final Subject SUBJECT = new SubjectImpl("name", USER_ID, "keycloakToken", false);
   private static final String OSO_TOKEN = "osoToken";
+  private static final long OC_LOGIN_TIMEOUT_SEC = 1;
 
   @Mock private OpenShiftUniqueNamesProvisioner uniqueNamesProvisioner;
   @Mock private RouteTlsProvisioner tlsRouteProvisioner;
@@ -156,7 +161,8 @@ public class RhCheInfraEnvironmentProvisionerTest {
             deploymentMetadataProvisioner,
             openshiftTrustedCAProvisioner,
             false,
-            WSAGENT_ROUTER_TIMEOUT);
+            WSAGENT_ROUTER_TIMEOUT,
+            OC_LOGIN_TIMEOUT_SEC);
 
     PodData podData1 = mock(PodData.class);
     PodData podData2 = mock(PodData.class);
@@ -171,7 +177,8 @@ public class RhCheInfraEnvironmentProvisionerTest {
     wsAgentRouteAnnotations.put("org.eclipse.che.server.wsagent/http.path", "/api");
 
     lenient().when(runtimeIdentity.getOwnerId()).thenReturn(USER_ID);
-    when(openshiftUserTokenProvider.getToken(eq(SUBJECT))).thenReturn(OSO_TOKEN);
+    when(openshiftUserTokenProvider.getTokenAsync(eq(SUBJECT), anyLong(), any()))
+        .thenReturn(CompletableFuture.completedFuture(OSO_TOKEN));
     when(tenantDataProvider.getUserCheTenantData(eq(SUBJECT), eq("user")))
         .thenReturn(new UserCheTenantData(NAMESPACE, CLUSTER_URL, null, false));
     when(openShiftEnvironment.getPodsData())
@@ -232,9 +239,11 @@ public class RhCheInfraEnvironmentProvisionerTest {
 
   @Test
   public void shouldNotThrowExceptionIfTokenFetchingFails() throws Exception {
-    doThrow(new InfrastructureException("error"))
+    CompletableFuture<String> failedToken = new CompletableFuture<>();
+    failedToken.completeExceptionally(new InfrastructureException("error"));
+    doReturn(failedToken)
         .when(openshiftUserTokenProvider)
-        .getToken(eq(SUBJECT));
+        .getTokenAsync(eq(SUBJECT), anyLong(), any());
 
     provisioner.provision(openShiftEnvironment, runtimeIdentity);
 
@@ -245,7 +254,9 @@ public class RhCheInfraEnvironmentProvisionerTest {
 
   @Test
   public void shouldNotThrowExceptionIfTokenIsNull() throws Exception {
-    doReturn(null).when(openshiftUserTokenProvider).getToken(eq(SUBJECT));
+    doReturn(CompletableFuture.completedFuture(null))
+        .when(openshiftUserTokenProvider)
+        .getTokenAsync(eq(SUBJECT), anyLong(), any());
 
     provisioner.provision(openShiftEnvironment, runtimeIdentity);
 
@@ -268,6 +279,40 @@ public class RhCheInfraEnvironmentProvisionerTest {
     verify(tenantDataProvider).getUserCheTenantData(eq(SUBJECT), eq("user"));
   }
 
+  @Test
+  public void shouldRetrieveTokenAndTenantDataConcurrently() throws Exception {
+    // the token is only retrieved once the tenant data retrieval has started
+    CompletableFuture<String> osoToken = new CompletableFuture<>();
+    doReturn(osoToken)
+        .when(openshiftUserTokenProvider)
+        .getTokenAsync(eq(SUBJECT), anyLong(), any());
+    doAnswer(
+            invocation -> {
+              osoToken.complete(OSO_TOKEN);
+              return new UserCheTenantData(NAMESPACE, CLUSTER_URL, null, false);
+            })
+        .when(tenantDataProvider)
+        .getUserCheTenantData(eq(SUBJECT), eq("user"));
+
+    provisioner.provision(openShiftEnvironment, runtimeIdentity);
+
+    verifyOcLoginEnvVarsPresence(con1EnvVars);
+  }
+
+  @Test
+  public void shouldNotWaitForRetrievalsLongerThanTimeout() throws Exception {
+    CompletableFuture<String> osoToken = new CompletableFuture<>();
+    doReturn(osoToken)
+        .when(openshiftUserTokenProvider)
+        .getTokenAsync(eq(SUBJECT), anyLong(), any());
+
+    provisioner.provision(openShiftEnvironment, runtimeIdentity);
+
+    assertTrue(osoToken.isCancelled());
+    assertTrue(con1EnvVars.isEmpty());
+    assertTrue(wsAgentRouteAnnotations.containsKey("haproxy.router.openshift.io/timeout"));
+  }
+
   private void verifyOcLoginEnvVarsPresence(List<EnvVar> envVars) {
     verifyEnvVarPresence(RhCheInfraEnvironmentProvisioner.CLUSTER_VAR, CLUSTER_URL, envVars);
     verifyEnvVarPresence(RhCheInfraEnvironmentProvisioner.PROJECT_VAR, NAMESPACE, envVars);
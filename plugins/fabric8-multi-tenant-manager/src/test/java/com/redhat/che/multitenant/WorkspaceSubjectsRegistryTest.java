@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant;
+
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableSet;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.shared.dto.event.WorkspaceStatusEvent;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.subject.Subject;
+import org.eclipse.che.commons.subject.SubjectImpl;
+import org.eclipse.che.dto.server.DtoFactory;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class WorkspaceSubjectsRegistryTest {
+
+  private static final Subject USER = new SubjectImpl("user", "userId", "token", false);
+
+  private static final int STRESS_THREADS = 16;
+  private static final int STRESS_USERS = 300;
+  private static final int STRESS_WORKSPACES = 10000;
+
+  private static final byte[] SIGNING_KEY =
+      "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+  private static final int MAX_USERS = 5;
+
+  @Mock private WorkspaceRuntimes workspaceRuntimes;
+
+  private final JwtParser jwtParser = Jwts.parser().setSigningKey(SIGNING_KEY);
+  private WorkspaceSubjectsRegistry registry;
+
+  @BeforeMethod
+  public void setUp() {
+    registry = createRegistry(Clock.systemUTC(), Integer.MAX_VALUE);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    EnvironmentContext.reset();
+  }
+
+  @Test
+  public void shouldReturnSubjectOfUserWhoStartedWorkspace() throws Exception {
+    // When
+    start("ws1", USER);
+
+    // Then
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test(expectedExceptions = NotFoundException.class)
+  public void shouldThrowWhenUserHasNoRunningWorkspace() throws Exception {
+    registry.getSubject("userId");
+  }
+
+  @Test
+  public void shouldUpdateSubjectWhenUserStartsAnotherWorkspace() throws Exception {
+    // Given
+    Subject refreshed = new SubjectImpl("user", "userId", "refreshed-token", false);
+    start("ws1", USER);
+
+    // When
+    start("ws2", refreshed);
+
+    // Then
+    assertEquals(registry.getSubject("userId"), refreshed);
+  }
+
+  @Test
+  public void shouldNotReplaceSubjectWithMachineToken() throws Exception {
+    // Given
+    start("ws1", USER);
+
+    // When
+    start("ws2", new SubjectImpl("user", "userId", "machine-token", false));
+
+    // Then
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test
+  public void shouldKeepSubjectUntilLastWorkspaceOfUserIsStopped() throws Exception {
+    // Given
+    start("ws1", USER);
+    start("ws2", USER);
+
+    // When
+    stop("ws1");
+
+    // Then
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test(expectedExceptions = NotFoundException.class)
+  public void shouldRemoveSubjectWhenLastWorkspaceOfUserIsStopped() throws Exception {
+    // Given
+    start("ws1", USER);
+    start("ws2", USER);
+
+    // When
+    stop("ws1");
+    stop("ws2");
+
+    // Then
+    registry.getSubject("userId");
+  }
+
+  @Test
+  public void shouldIgnoreStopOfUnknownWorkspace() throws Exception {
+    // Given
+    start("ws1", USER);
+
+    // When
+    stop("unknown");
+
+    // Then
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test
+  public void shouldNeitherLoseNorLeakEntriesUnderConcurrentStartsAndStops() throws Exception {
+    // Given
+    ExecutorService executor = Executors.newFixedThreadPool(STRESS_THREADS);
+    CountDownLatch startSignal = new CountDownLatch(1);
+    List<Future<?>> tasks = new ArrayList<>();
+    Set<String> usersWithRunningWorkspaces = new HashSet<>();
+    for (int i = 0; i < STRESS_WORKSPACES; i++) {
+      String workspaceId = "ws" + i;
+      Subject subject = stressUser(i % STRESS_USERS);
+      // a tenth of the workspaces keeps running
+      boolean stopped = i % 10 != 0;
+      if (!stopped) {
+        usersWithRunningWorkspaces.add(subject.getUserId());
+      }
+      tasks.add(
+          executor.submit(
+              () -> {
+                startSignal.await();
+                try {
+                  start(workspaceId, subject);
+                  if (stopped) {
+                    stop(workspaceId);
+                  }
+                } finally {
+                  EnvironmentContext.reset();
+                }
+                return null;
+              }));
+    }
+
+    // When
+    startSignal.countDown();
+    try {
+      for (Future<?> task : tasks) {
+        task.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Then
+    assertEquals(registry.getWorkspacesCount(), STRESS_WORKSPACES / 10);
+    assertEquals(registry.getUsersCount(), usersWithRunningWorkspaces.size());
+    for (int user = 0; user < STRESS_USERS; user++) {
+      Subject subject = stressUser(user);
+      if (usersWithRunningWorkspaces.contains(subject.getUserId())) {
+        assertEquals(registry.getSubject(subject.getUserId()), subject);
+      } else {
+        assertThrows(NotFoundException.class, () -> registry.getSubject(subject.getUserId()));
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotReturnSubjectWhoseTokenExpired() throws Exception {
+    // Given
+    registry = createRegistry(Clock.offset(Clock.systemUTC(), Duration.ofHours(2)), MAX_USERS);
+    start("ws1", userWithTokenExpiringIn(Duration.ofHours(1)));
+
+    // Then
+    assertThrows(NotFoundException.class, () -> registry.getSubject("userId"));
+  }
+
+  @Test
+  public void shouldDropExpiredSubjectsWhenSweeping() throws Exception {
+    // Given
+    Clock inTwoHours = Clock.offset(Clock.systemUTC(), Duration.ofHours(2));
+    registry = createRegistry(inTwoHours, MAX_USERS);
+    when(workspaceRuntimes.getActive()).thenReturn(ImmutableSet.of("ws1"));
+    start("ws1", userWithTokenExpiringIn(Duration.ofHours(1)));
+
+    // When
+    registry.sweep();
+
+    // Then
+    assertEquals(registry.getWorkspacesCount(), 1);
+    assertThrows(NotFoundException.class, () -> registry.getSubject("userId"));
+  }
+
+  @Test
+  public void shouldRegisterNewSubjectOfUserWhoseExpiredSubjectWasDropped() throws Exception {
+    // Given
+    Clock inTwoHours = Clock.offset(Clock.systemUTC(), Duration.ofHours(2));
+    registry = createRegistry(inTwoHours, MAX_USERS);
+    when(workspaceRuntimes.getActive()).thenReturn(ImmutableSet.of("ws1"));
+    start("ws1", userWithTokenExpiringIn(Duration.ofHours(1)));
+    registry.sweep();
+
+    // When
+    start("ws2", USER);
+
+    // Then
+    assertEquals(registry.getWorkspacesCount(), 2);
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test
+  public void shouldUnregisterWorkspacesThatAreNotActiveWhenSweeping() throws Exception {
+    // Given
+    Subject otherUser = new SubjectImpl("other", "otherId", "otherToken", false);
+    when(workspaceRuntimes.getActive()).thenReturn(ImmutableSet.of("ws1"));
+    start("ws1", USER);
+    start("ws2", USER);
+    start("ws3", otherUser);
+
+    // When
+    registry.sweep();
+
+    // Then
+    assertEquals(registry.getWorkspacesCount(), 1);
+    assertEquals(registry.getUsersCount(), 1);
+    assertEquals(registry.getSubject("userId"), USER);
+    assertThrows(NotFoundException.class, () -> registry.getSubject("otherId"));
+  }
+
+  @Test
+  public void shouldNotUnregisterWorkspaceRestartedWhileSweeping() throws Exception {
+    // Given
+    start("ws1", USER);
+    when(workspaceRuntimes.getActive())
+        .thenAnswer(
+            invocation -> {
+              // the workspace is restarted after the active workspaces are listed
+              stop("ws1");
+              start("ws1", USER);
+              return ImmutableSet.of();
+            });
+    when(workspaceRuntimes.hasRuntime("ws1")).thenReturn(true);
+
+    // When
+    registry.sweep();
+
+    // Then
+    assertEquals(registry.getWorkspacesCount(), 1);
+    assertEquals(registry.getSubject("userId"), USER);
+  }
+
+  @Test
+  public void shouldNotRegisterMoreUsersThanMaximum() throws Exception {
+    // Given
+    registry = createRegistry(Clock.systemUTC(), MAX_USERS);
+    for (int i = 0; i < MAX_USERS; i++) {
+      start("ws" + i, stressUser(i));
+    }
+
+    // When
+    start("rejected", stressUser(MAX_USERS));
+    start("accepted", stressUser(0));
+
+    // Then
+    assertEquals(registry.getUsersCount(), MAX_USERS);
+    assertEquals(registry.getWorkspacesCount(), MAX_USERS + 1);
+    assertThrows(NotFoundException.class, () -> registry.getSubject("userId" + MAX_USERS));
+
+    // When
+    stop("ws1");
+    start("rejected", stressUser(MAX_USERS));
+
+    // Then
+    assertEquals(registry.getSubject("userId" + MAX_USERS), stressUser(MAX_USERS));
+  }
+
+  @Test
+  public void shouldPublishSizeOfRegistry() {
+    // Given
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    registry.bindTo(meterRegistry);
+
+    // When
+    start("ws1", USER);
+    start("ws2", USER);
+
+    // Then
+    assertEquals(meterRegistry.get("workspace_subjects.users").gauge().value(), 1.0);
+    assertEquals(meterRegistry.get("workspace_subjects.workspaces").gauge().value(), 2.0);
+  }
+
+  @Test
+  public void shouldCountWorkspacesRejectedByMaximumUsers() {
+    // Given
+    registry = createRegistry(Clock.systemUTC(), 1);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    registry.bindTo(meterRegistry);
+    start("ws1", USER);
+
+    // When
+    start("ws2", new SubjectImpl("other", "otherId", "otherToken", false));
+
+    // Then
+    assertEquals(meterRegistry.get("workspace_subjects.rejected").functionCounter().count(), 1.0);
+  }
+
+  private void start(String workspaceId, Subject subject) {
+    EnvironmentContext.getCurrent().setSubject(subject);
+    registry.onEvent(event(workspaceId, WorkspaceStatus.STARTING));
+  }
+
+  private void stop(String workspaceId) {
+    registry.onEvent(event(workspaceId, WorkspaceStatus.STOPPED));
+  }
+
+  private WorkspaceSubjectsRegistry createRegistry(Clock clock, int maxUsers) {
+    return new WorkspaceSubjectsRegistry(() -> workspaceRuntimes, jwtParser, maxUsers, 0, clock);
+  }
+
+  private static Subject userWithTokenExpiringIn(Duration duration) {
+    String token =
+        Jwts.builder()
+            .setSubject("userId")
+            .setExpiration(new Date(System.currentTimeMillis() + duration.toMillis()))
+            .signWith(SignatureAlgorithm.HS256, SIGNING_KEY)
+            .compact();
+    return new SubjectImpl("user", "userId", token, false);
+  }
+
+  private static Subject stressUser(int index) {
+    return new SubjectImpl("user" + index, "userId" + index, "token" + index, false);
+  }
+
+  private static WorkspaceStatusEvent event(String workspaceId, WorkspaceStatus status) {
+    return DtoFactory.newDto(WorkspaceStatusEvent.class)
+        .withWorkspaceId(workspaceId)
+        .withStatus(status);
+  }
+}
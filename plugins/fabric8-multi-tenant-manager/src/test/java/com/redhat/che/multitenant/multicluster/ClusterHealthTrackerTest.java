@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ClusterHealthTrackerTest {
+
+  private static final long WINDOW_SEC = 60;
+  private static final long EJECTION_PERIOD_SEC = 300;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private volatile int status;
+  private volatile long latencyMillis;
+  private volatile int inFlightDuringRequest;
+  private CountDownLatch watchClosed;
+  private HttpServer cluster;
+  private String clusterUrl;
+  private String origin;
+  private DirectClusterRouting routing;
+  private ClusterHealthTracker tracker;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    nanos.set(0);
+    status = 200;
+    latencyMillis = 0;
+    watchClosed = new CountDownLatch(1);
+    cluster = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    cluster.createContext(
+        "/",
+        exchange -> {
+          inFlightDuringRequest = tracker.getHealth().get(0).getInFlight();
+          nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+          exchange.sendResponseHeaders(status, -1);
+          exchange.close();
+        });
+    cluster.createContext(
+        "/api/v1/namespaces/user-che/pods",
+        exchange -> {
+          nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+          // events are streamed until the watch is closed
+          exchange.sendResponseHeaders(200, 0);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write("{\"type\": \"ADDED\"}\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            watchClosed.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    cluster.start();
+    origin = "http://127.0.0.1:" + cluster.getAddress().getPort();
+    clusterUrl = origin + "/";
+    routing = new DirectClusterRouting(true, 60, ticker());
+    tracker = createTracker(false);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    watchClosed.countDown();
+    cluster.stop(0);
+  }
+
+  @Test
+  public void shouldRecordLatencyOfRequestsToEachEndpoint() {
+    // Given
+    latencyMillis = 20;
+
+    // When
+    for (int i = 0; i < 10; i++) {
+      execute();
+    }
+
+    // Then
+    List<ClusterHealth> health = tracker.getHealth();
+    assertEquals(health.size(), 1);
+    ClusterHealth clusterHealth = health.get(0);
+    assertEquals(clusterHealth.getCluster(), origin);
+    assertEquals(clusterHealth.getRequests(), 10);
+    assertEquals(clusterHealth.getErrors(), 0);
+    assertEquals(clusterHealth.getInFlight(), 0);
+    assertEquals(clusterHealth.getRttP50Millis(), 20, 1);
+    assertEquals(clusterHealth.getRttP99Millis(), 20, 1);
+  }
+
+  @Test
+  public void shouldTrackRequestsInFlight() {
+    // When
+    execute();
+
+    // Then
+    assertEquals(inFlightDuringRequest, 1);
+    assertEquals(tracker.getHealth().get(0).getInFlight(), 0);
+  }
+
+  @Test
+  public void shouldRecordLatencyOfWatchesUntilResponseHeaders() throws Exception {
+    // Given
+    latencyMillis = 20;
+    Request watch =
+        new Request.Builder()
+            .url(clusterUrl + "api/v1/namespaces/user-che/pods?watch=true")
+            .build();
+
+    // When
+    try (Response response = newClient().newCall(watch).execute()) {
+      response.body().source().readUtf8Line();
+      nanos.addAndGet(TimeUnit.MINUTES.toNanos(10));
+
+      // Then
+      ClusterHealth clusterHealth = tracker.getHealth().get(0);
+      assertEquals(clusterHealth.getRequests(), 1);
+      assertEquals(clusterHealth.getInFlight(), 0);
+    } finally {
+      watchClosed.countDown();
+    }
+    ClusterHealth clusterHealth = tracker.getHealth().get(0);
+    assertEquals(clusterHealth.getRequests(), 1);
+    assertEquals(clusterHealth.getErrors(), 0);
+    assertEquals(clusterHealth.getInFlight(), 0);
+    assertEquals(clusterHealth.getRttP99Millis(), 20, 1);
+  }
+
+  @Test
+  public void shouldNotRecordCanceledRequests() {
+    // Given
+    Call call = newClient().newCall(new Request.Builder().url(clusterUrl).build());
+    call.cancel();
+
+    // When
+    try (Response ignored = call.execute()) {
+      // the call fails before any request
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Then
+    ClusterHealth clusterHealth = tracker.getHealth().get(0);
+    assertEquals(clusterHealth.getRequests(), 0);
+    assertEquals(clusterHealth.getErrors(), 0);
+    assertEquals(clusterHealth.getInFlight(), 0);
+  }
+
+  @Test
+  public void shouldCountServerErrorsAndFailedRequests() {
+    // Given
+    status = 404;
+    execute();
+    status = 500;
+    execute();
+    cluster.stop(0);
+
+    // When
+    execute();
+
+    // Then
+    ClusterHealth clusterHealth = tracker.getHealth().get(0);
+    assertEquals(clusterHealth.getRequests(), 3);
+    assertEquals(clusterHealth.getErrors(), 2);
+    assertEquals(clusterHealth.getWindowRequests(), 3);
+    assertEquals(clusterHealth.getWindowErrorRate(), 2.0 / 3, 0.001);
+  }
+
+  @Test
+  public void shouldComputeErrorRateOverWindow() {
+    // Given
+    status = 503;
+    execute();
+
+    // When
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(WINDOW_SEC));
+
+    // Then
+    ClusterHealth clusterHealth = tracker.getHealth().get(0);
+    assertEquals(clusterHealth.getErrors(), 1);
+    assertEquals(clusterHealth.getWindowRequests(), 0);
+    assertEquals(clusterHealth.getWindowErrorRate(), 0.0);
+  }
+
+  @Test
+  public void shouldPublishMetricsOfEachEndpoint() {
+    // Given
+    MeterRegistry registry = new SimpleMeterRegistry();
+    tracker.bindTo(registry);
+    status = 500;
+
+    // When
+    execute();
+
+    // Then
+    assertEquals(
+        registry.get("openshift_client.requests").tag("cluster", origin).timer().count(), 1);
+    assertEquals(
+        registry.get("openshift_client.errors").tag("cluster", origin).counter().count(), 1.0);
+    assertEquals(
+        registry.get("openshift_client.in_flight").tag("cluster", origin).gauge().value(), 0.0);
+  }
+
+  @Test
+  public void shouldEjectOutlierClusterFromDirectRouting() {
+    // Given
+    tracker = createTracker(true);
+    routing.canRouteDirectly(clusterUrl);
+    execute();
+    status = 503;
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      execute();
+    }
+
+    // Then
+    assertTrue(tracker.getHealth().get(0).isEjected());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(EJECTION_PERIOD_SEC - 1));
+    assertFalse(routing.canRouteDirectly(clusterUrl));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldNotEjectClusterBeforeMinimumRequests() {
+    // Given
+    tracker = createTracker(true);
+    routing.canRouteDirectly(clusterUrl);
+    status = 503;
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      execute();
+    }
+
+    // Then
+    assertFalse(tracker.getHealth().get(0).isEjected());
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldNotEjectClusterWhenOutlierEjectionIsDisabled() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    status = 503;
+
+    // When
+    for (int i = 0; i < 4; i++) {
+      execute();
+    }
+
+    // Then
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  private ClusterHealthTracker createTracker(boolean outlierEjection) {
+    return new ClusterHealthTracker(
+        routing, WINDOW_SEC, outlierEjection, 0.5, 4, EJECTION_PERIOD_SEC, ticker());
+  }
+
+  private Ticker ticker() {
+    return new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    };
+  }
+
+  private OkHttpClient newClient() {
+    return new OkHttpClient.Builder()
+        .eventListener(tracker.tracking(EventListener.NONE))
+        .retryOnConnectionFailure(false)
+        .build();
+  }
+
+  private void execute() {
+    Request request = new Request.Builder().url(clusterUrl + "api/v1/pods").build();
+    try (Response ignored = newClient().newCall(request).execute()) {
+      // only the events of the call are tracked
+    } catch (IOException e) {
+      // expected when the cluster is down
+    }
+  }
+}
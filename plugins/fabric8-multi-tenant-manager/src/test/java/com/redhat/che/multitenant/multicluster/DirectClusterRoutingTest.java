@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.multicluster;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.base.Ticker;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class DirectClusterRoutingTest {
+
+  private static final long FALLBACK_PERIOD_SEC = 60;
+  private static final String PROXY_URL = "https://proxy.openshift.io/";
+
+  @Mock private EventListener tracingListener;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private volatile int status;
+  private volatile long delayMillis;
+  private HttpServer cluster;
+  private String clusterUrl;
+  private DirectClusterRouting routing;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    nanos.set(0);
+    status = 200;
+    delayMillis = 0;
+    cluster = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    cluster.createContext(
+        "/",
+        exchange -> {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          exchange.sendResponseHeaders(status, -1);
+          exchange.close();
+        });
+    cluster.start();
+    clusterUrl = "http://127.0.0.1:" + cluster.getAddress().getPort() + "/";
+    routing = createRouting(true);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    cluster.stop(0);
+  }
+
+  @Test
+  public void shouldNotRouteDirectlyWhenDisabled() {
+    // Given
+    routing = createRouting(false);
+
+    // Then
+    assertFalse(routing.canRouteDirectly(clusterUrl));
+    assertFalse(routing.isRoutedDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldRouteRequestsToClusterDirectly() {
+    // When
+    boolean direct = routing.canRouteDirectly("https://api.cluster.openshift.com/");
+
+    // Then
+    assertTrue(direct);
+    assertTrue(routing.isRoutedDirectly("https://api.cluster.openshift.com:443/api/v1/pods"));
+    assertFalse(routing.isRoutedDirectly(PROXY_URL));
+    assertFalse(routing.isFallingBack("https://api.cluster.openshift.com/"));
+  }
+
+  @Test
+  public void shouldFallBackToProxyWhenDirectRequestFails() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    cluster.stop(0);
+
+    // When
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods");
+
+    // Then
+    assertTrue(routing.isFallingBack(clusterUrl));
+    assertFalse(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldFallBackToProxyWhenClusterIsUnavailable() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    status = 503;
+
+    // When
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods");
+
+    // Then
+    assertFalse(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldNotFallBackWhenClusterAnswers() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    status = 404;
+
+    // When
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods/unknown");
+
+    // Then
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldRouteDirectlyAgainAfterFallbackPeriod() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    status = 502;
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods");
+
+    // When
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(FALLBACK_PERIOD_SEC));
+
+    // Then
+    assertFalse(routing.isFallingBack(clusterUrl));
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldNotTrackRequestsToOtherHosts() {
+    // Given
+    cluster.stop(0);
+
+    // When
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods");
+
+    // Then
+    assertFalse(routing.isFallingBack(clusterUrl));
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldNotFallBackWhenCallIsCanceled() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    Call call = newClient().newCall(newRequest(clusterUrl + "api/v1/namespaces/user-che/pods"));
+    call.cancel();
+
+    // When
+    try (Response ignored = call.execute()) {
+      fail("Canceled call should not succeed");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Then
+    assertFalse(routing.isFallingBack(clusterUrl));
+    assertTrue(routing.canRouteDirectly(clusterUrl));
+  }
+
+  @Test
+  public void shouldFallBackWhenCallTimesOut() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    delayMillis = 1000;
+    Call call = newClient().newCall(newRequest(clusterUrl + "api/v1/namespaces/user-che/pods"));
+    call.timeout().timeout(100, TimeUnit.MILLISECONDS);
+
+    // When
+    try (Response ignored = call.execute()) {
+      fail("Call should time out");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Then
+    assertTrue(routing.isFallingBack(clusterUrl));
+  }
+
+  @Test
+  public void shouldForwardEventsToTracingListener() {
+    // Given
+    routing.canRouteDirectly(clusterUrl);
+    status = 503;
+
+    // When
+    execute(clusterUrl + "api/v1/namespaces/user-che/pods");
+
+    // Then
+    verify(tracingListener).callStart(any(Call.class));
+    verify(tracingListener).responseHeadersEnd(any(Call.class), any(Response.class));
+    verify(tracingListener).callEnd(any(Call.class));
+  }
+
+  private DirectClusterRouting createRouting(boolean enabled) {
+    return new DirectClusterRouting(
+        enabled,
+        FALLBACK_PERIOD_SEC,
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        });
+  }
+
+  private OkHttpClient newClient() {
+    return new OkHttpClient.Builder()
+        .eventListener(routing.reportingFailures(tracingListener))
+        .retryOnConnectionFailure(false)
+        .build();
+  }
+
+  private static Request newRequest(String url) {
+    return new Request.Builder().url(url).build();
+  }
+
+  private void execute(String url) {
+    try (Response response = newClient().newCall(newRequest(url)).execute()) {
+      if (response.isSuccessful()) {
+        fail("Request to " + url + " should not succeed");
+      }
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class ClusterCapacityIndexTest {
+
+  private static final String CLUSTER_URL = "https://api.cluster/";
+  private static final long TTL_SECONDS = 30;
+  private static final long MAX_AGE_SECONDS = 300;
+
+  @Mock private TenantDataCacheLoader cacheLoader;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private ClusterCapacityIndex index;
+
+  @BeforeMethod
+  public void setUp() {
+    nanos.set(0);
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+    index =
+        new ClusterCapacityIndex(
+            TTL_SECONDS, MAX_AGE_SECONDS, ticker, MoreExecutors.newDirectExecutorService());
+    index.refreshWith(
+        keycloakToken -> index.recording(cacheLoader).load(new TenantDataCacheKey(keycloakToken)));
+  }
+
+  @Test
+  public void shouldUseTenantDataCapacityWhenClusterWasNeverObserved() {
+    assertTrue(index.isCapacityExhausted(tenantData(CLUSTER_URL, true), "token"));
+    assertFalse(index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token"));
+  }
+
+  @Test
+  public void shouldApplyCapacityObservedForAUserToAllUsersOfTheCluster() throws Exception {
+    // Given
+    when(cacheLoader.load(any())).thenReturn(namespaces(tenantData(CLUSTER_URL, true)));
+
+    // When
+    index.recording(cacheLoader).load(new TenantDataCacheKey("token"));
+
+    // Then
+    assertTrue(index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "other-token"));
+    assertFalse(index.isCapacityExhausted(tenantData("https://other.cluster/", false), "token"));
+  }
+
+  @Test
+  public void shouldRefreshCapacityWithUserTokenWhenObservationIsTooOld() throws Exception {
+    // Given
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+    when(cacheLoader.load(any())).thenReturn(namespaces(tenantData(CLUSTER_URL, false)));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(TTL_SECONDS + 1));
+
+    // When
+    boolean staleCapacity = index.isCapacityExhausted(tenantData(CLUSTER_URL, true), "token");
+    boolean refreshedCapacity = index.isCapacityExhausted(tenantData(CLUSTER_URL, true), "token");
+
+    // Then
+    assertTrue(staleCapacity);
+    assertFalse(refreshedCapacity);
+    verify(cacheLoader, times(1)).load(new TenantDataCacheKey("token"));
+  }
+
+  @Test
+  public void shouldNotRefreshCapacityBeforeTtl() throws Exception {
+    // Given
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(TTL_SECONDS - 1));
+
+    // When
+    boolean exhausted = index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+
+    // Then
+    assertTrue(exhausted);
+    verify(cacheLoader, never()).load(any());
+  }
+
+  @Test
+  public void shouldKeepLastCapacityAndBackOffWhenRefreshFails() throws Exception {
+    // Given
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+    when(cacheLoader.load(any())).thenThrow(new InfrastructureException("unavailable"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(TTL_SECONDS + 1));
+
+    // When
+    index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+    boolean exhausted = index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+
+    // Then
+    assertTrue(exhausted);
+    verify(cacheLoader, times(1)).load(any());
+  }
+
+  @Test
+  public void shouldRetryFailedRefreshWithExponentialBackoff() throws Exception {
+    // Given
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+    when(cacheLoader.load(any()))
+        .thenThrow(new InfrastructureException("unavailable"))
+        .thenThrow(new InfrastructureException("unavailable"))
+        .thenReturn(namespaces(tenantData(CLUSTER_URL, false)));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(TTL_SECONDS + 1));
+    index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+
+    // When
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    boolean beforeBackoff = index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+    boolean afterBackoff = index.isCapacityExhausted(tenantData(CLUSTER_URL, true), "token");
+
+    // Then
+    assertTrue(beforeBackoff);
+    assertFalse(afterBackoff);
+    verify(cacheLoader, times(3)).load(any());
+  }
+
+  @Test
+  public void shouldUseTenantDataCapacityWhenObservationIsOlderThanMaxAge() throws Exception {
+    // Given
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+    when(cacheLoader.load(any())).thenThrow(new InfrastructureException("unavailable"));
+
+    // When
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(MAX_AGE_SECONDS + 1));
+
+    // Then
+    assertFalse(index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token"));
+    assertTrue(index.isCapacityExhausted(tenantData(CLUSTER_URL, true), "token"));
+  }
+
+  @Test
+  public void shouldNotRefreshCapacityWithoutRefreshLoader() throws Exception {
+    // Given
+    index =
+        new ClusterCapacityIndex(
+            TTL_SECONDS,
+            MAX_AGE_SECONDS,
+            Ticker.systemTicker(),
+            MoreExecutors.newDirectExecutorService());
+    index.record(namespaces(tenantData(CLUSTER_URL, true)));
+
+    // When
+    boolean exhausted = index.isCapacityExhausted(tenantData(CLUSTER_URL, false), "token");
+
+    // Then
+    assertTrue(exhausted);
+    verify(cacheLoader, never()).load(any());
+  }
+
+  private static UserCheTenantData tenantData(String clusterUrl, boolean exhausted) {
+    return new UserCheTenantData("namespace", clusterUrl, "routePrefix", exhausted);
+  }
+
+  private static UserTenantNamespaces namespaces(UserCheTenantData cheTenantData) {
+    return new UserTenantNamespaces(ImmutableMap.of("che", cheTenantData));
+  }
+}
@@ -12,6 +12,7 @@
 package com.redhat.che.multitenant.tenantdata;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 
@@ -35,6 +36,9 @@ public class TenantDataCacheLoaderTest {
   private static final String BAD_RESPONSE_FORMAT =
       "{\"data\":{\"attributes\":{\"created-at\":\"createdAt\",\"namespaces\":[{\"cluster-app-domain\": %s,\"cluster-capacity-exhausted\": %b,\"name\": %s,\"type\": %s}]},\"id\":\"userid\",\"type\":\"userservices\"}}";
 
+  private static final String TWO_NAMESPACES_RESPONSE_FORMAT =
+      "{\"data\":{\"attributes\":{\"namespaces\":[{\"cluster-app-domain\": %s,\"cluster-url\": %s,\"name\": %s,\"type\": %s},{\"cluster-app-domain\": %s,\"cluster-url\": %s,\"name\": %s,\"type\": %s}]},\"id\":\"userid\",\"type\":\"userservices\"}}";
+
   private static final String NAMESPACE = "test-namespace";
   private static final String ENDPOINT = "test-endpoint";
   private static final String CLUSTER_URL = "test-url";
@@ -65,10 +69,10 @@ public class TenantDataCacheLoaderTest {
     String jsonResponse =
         generateResponse(ROUTE_PREFIX, CLUSTER_URL, NAMESPACE, NAMESPACE_TYPE_CHE, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "che");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    UserCheTenantData data = cacheLoader.load(cacheKey);
+    UserCheTenantData data = cacheLoader.load(cacheKey).getTenantData("che");
 
     // Then
     assertEquals(data.getRouteBaseSuffix(), ROUTE_PREFIX);
@@ -77,16 +81,42 @@ public class TenantDataCacheLoaderTest {
     assertEquals(data.isClusterCapacityExhausted(), false);
   }
 
+  @Test
+  public void shouldReturnAllNamespacesOfTheTenantFromSingleResponse() throws Exception {
+    // Given
+    String jsonResponse =
+        String.format(
+            TWO_NAMESPACES_RESPONSE_FORMAT,
+            ROUTE_PREFIX,
+            CLUSTER_URL,
+            NAMESPACE + "-che",
+            NAMESPACE_TYPE_CHE,
+            ROUTE_PREFIX,
+            CLUSTER_URL,
+            NAMESPACE,
+            NAMESPACE_TYPE_USER);
+    when(httpJsonResponse.asString()).thenReturn(jsonResponse);
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
+
+    // When
+    UserTenantNamespaces namespaces = cacheLoader.load(cacheKey);
+
+    // Then
+    assertEquals(namespaces.getTenantData(NAMESPACE_TYPE_CHE).getNamespace(), NAMESPACE + "-che");
+    assertEquals(namespaces.getTenantData(NAMESPACE_TYPE_USER).getNamespace(), NAMESPACE);
+    verify(httpJsonRequest).request();
+  }
+
   @Test(
       expectedExceptions = InfrastructureException.class,
       expectedExceptionsMessageRegExp = ".*retrieval.*")
   public void shouldThrowInfrastructureExceptionWhenFailToGetResponse() throws Exception {
     // Given
     when(httpJsonRequest.request()).thenThrow(new IOException());
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "che");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    cacheLoader.load(cacheKey);
+    cacheLoader.load(cacheKey).getTenantData("che");
   }
 
   @Test(
@@ -97,10 +127,10 @@ public class TenantDataCacheLoaderTest {
     String jsonResponse =
         generateResponse(ROUTE_PREFIX, CLUSTER_URL, NAMESPACE, BAD_NAMESPACE_TYPE, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", NAMESPACE_TYPE_CHE);
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    cacheLoader.load(cacheKey);
+    cacheLoader.load(cacheKey).getTenantData(NAMESPACE_TYPE_CHE);
   }
 
   @Test(
@@ -110,10 +140,10 @@ public class TenantDataCacheLoaderTest {
     // Given
     String jsonResponse = generateBadResponse(ROUTE_PREFIX, NAMESPACE, NAMESPACE_TYPE_CHE, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "che");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    cacheLoader.load(cacheKey);
+    cacheLoader.load(cacheKey).getTenantData("che");
   }
 
   @Test(
@@ -122,10 +152,10 @@ public class TenantDataCacheLoaderTest {
   public void shouldThrowInfrastructureExceptionWhenResponseParsesToNull() throws Exception {
     // Given
     when(httpJsonResponse.asString()).thenReturn("{}"); // Should parse to null
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "che");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    cacheLoader.load(cacheKey);
+    cacheLoader.load(cacheKey).getTenantData("che");
   }
 
   @Test
@@ -134,10 +164,10 @@ public class TenantDataCacheLoaderTest {
     String jsonResponse =
         generateResponse(ROUTE_PREFIX, CLUSTER_URL, NAMESPACE, NAMESPACE_TYPE_USER, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "user");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    UserCheTenantData data = cacheLoader.load(cacheKey);
+    UserCheTenantData data = cacheLoader.load(cacheKey).getTenantData("user");
 
     // Then
     assertEquals(data.getRouteBaseSuffix(), ROUTE_PREFIX);
@@ -152,10 +182,10 @@ public class TenantDataCacheLoaderTest {
     String jsonResponse =
         generateResponse(ROUTE_PREFIX, CLUSTER_URL, NAMESPACE, NAMESPACE_TYPE_CHE, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", "user");
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    UserCheTenantData data = cacheLoader.load(cacheKey);
+    UserCheTenantData data = cacheLoader.load(cacheKey).getTenantData("user");
 
     // Then expect blank data
     assertEquals(data.getRouteBaseSuffix(), "");
@@ -172,10 +202,10 @@ public class TenantDataCacheLoaderTest {
     String jsonResponse =
         generateResponse(ROUTE_PREFIX, CLUSTER_URL, NAMESPACE, NAMESPACE_TYPE_CHE, false);
     when(httpJsonResponse.asString()).thenReturn(jsonResponse);
-    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token", BAD_NAMESPACE_TYPE);
+    TenantDataCacheKey cacheKey = new TenantDataCacheKey("token");
 
     // When
-    cacheLoader.load(cacheKey);
+    cacheLoader.load(cacheKey).getTenantData(BAD_NAMESPACE_TYPE);
   }
 
   private String generateResponse(
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.che.api.core.UnauthorizedException;
+import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class TenantDataFailureGuardTest {
+
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long OPEN_DURATION_SECONDS = 30;
+
+  @Mock private TenantDataCacheLoader cacheLoader;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private TenantDataFailureGuard guard;
+
+  @BeforeMethod
+  public void setUp() {
+    nanos.set(0);
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+    guard =
+        new TenantDataFailureGuard(
+            cacheLoader, ticker, 100, FAILURE_THRESHOLD, OPEN_DURATION_SECONDS);
+  }
+
+  @Test
+  public void shouldNotRetryFailedLoadBeforeBackoffDelay() throws Exception {
+    // Given
+    when(cacheLoader.load(any())).thenThrow(unavailable());
+    assertLoadFails("token");
+
+    // When
+    assertLoadFails("token");
+
+    // Then
+    verify(cacheLoader, times(1)).load(any());
+  }
+
+  @Test
+  public void shouldRetryFailedLoadAfterExponentialBackoffDelay() throws Exception {
+    // Given
+    UserTenantNamespaces namespaces = new UserTenantNamespaces(ImmutableMap.of());
+    when(cacheLoader.load(any()))
+        .thenThrow(unauthorized())
+        .thenThrow(unauthorized())
+        .thenReturn(namespaces);
+    assertLoadFails("token");
+    advance(1, TimeUnit.SECONDS);
+    assertLoadFails("token");
+
+    // When
+    advance(1, TimeUnit.SECONDS);
+    assertLoadFails("token"); // second backoff is 2 seconds
+    advance(1, TimeUnit.SECONDS);
+    UserTenantNamespaces loaded = guard.load(new TenantDataCacheKey("token"));
+
+    // Then
+    assertSame(loaded, namespaces);
+    verify(cacheLoader, times(3)).load(any());
+  }
+
+  @Test
+  public void shouldFailFastWhenCircuitIsOpen() throws Exception {
+    // Given
+    when(cacheLoader.load(any())).thenThrow(unavailable());
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertLoadFails("token" + i);
+    }
+
+    // When
+    InfrastructureException e = assertLoadFails("another-token");
+
+    // Then
+    assertEquals(
+        e.getMessage(),
+        "User tenant data retrieval is suspended since the fabric8 auth service failed 3 "
+            + "consecutive times. Next attempt in 30000 ms");
+    verify(cacheLoader, times(FAILURE_THRESHOLD)).load(any());
+  }
+
+  @Test
+  public void shouldNotOpenCircuitWhenAuthServiceAnswers() throws Exception {
+    // Given
+    when(cacheLoader.load(any())).thenThrow(unauthorized());
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertLoadFails("token" + i);
+    }
+
+    // When
+    assertLoadFails("another-token");
+
+    // Then
+    verify(cacheLoader, times(FAILURE_THRESHOLD + 1)).load(any());
+  }
+
+  @Test
+  public void shouldCloseCircuitWhenProbeSucceeds() throws Exception {
+    // Given
+    UserTenantNamespaces namespaces = new UserTenantNamespaces(ImmutableMap.of());
+    when(cacheLoader.load(any()))
+        .thenThrow(unavailable(), unavailable(), unavailable())
+        .thenReturn(namespaces);
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertLoadFails("token" + i);
+    }
+
+    // When
+    advance(OPEN_DURATION_SECONDS, TimeUnit.SECONDS);
+    guard.load(new TenantDataCacheKey("probe-token"));
+    UserTenantNamespaces loaded = guard.load(new TenantDataCacheKey("another-token"));
+
+    // Then
+    assertSame(loaded, namespaces);
+    verify(cacheLoader, times(FAILURE_THRESHOLD + 2)).load(any());
+  }
+
+  @Test
+  public void shouldReopenCircuitWhenProbeFails() throws Exception {
+    // Given
+    when(cacheLoader.load(any())).thenThrow(unavailable());
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertLoadFails("token" + i);
+    }
+
+    // When
+    advance(OPEN_DURATION_SECONDS, TimeUnit.SECONDS);
+    assertLoadFails("probe-token");
+    assertLoadFails("another-token");
+
+    // Then
+    verify(cacheLoader, times(FAILURE_THRESHOLD + 1)).load(any());
+  }
+
+  private InfrastructureException assertLoadFails(String token) {
+    try {
+      guard.load(new TenantDataCacheKey(token));
+    } catch (InfrastructureException e) {
+      return e;
+    }
+    fail("Tenant data load was expected to fail");
+    return null;
+  }
+
+  private void advance(long duration, TimeUnit unit) {
+    nanos.addAndGet(unit.toNanos(duration));
+  }
+
+  private static InfrastructureException unavailable() {
+    return new InfrastructureException(
+        "Exception during the user tenant data retrieval", new IOException("test-failure"));
+  }
+
+  private static InfrastructureException unauthorized() {
+    return new InfrastructureException(
+        "Exception during the user tenant data retrieval",
+        new UnauthorizedException("test-failure"));
+  }
+}
@@ -12,9 +12,27 @@
 package com.redhat.che.multitenant.tenantdata;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.che.api.workspace.server.spi.InfrastructureException;
 import org.eclipse.che.commons.subject.Subject;
 import org.eclipse.che.commons.subject.SubjectImpl;
@@ -29,18 +47,54 @@ public class TenantDataProviderTest {
 
   private static final String NAMESPACE_TYPE = "che";
   private static final String NAMESPACE = "test-namespace";
+  private static final String USER_ID = "userId";
 
   @Mock private TenantDataCacheLoader cacheLoader;
   @Mock private SubjectImpl subject;
+  @Mock private JwtParser jwtParser;
+  @Mock private Jws<Claims> jws;
+  @Mock private Claims claims;
+  @Mock private TenantDataSnapshot snapshot;
 
+  private final TestTicker ticker = new TestTicker();
+
+  private ClusterCapacityIndex capacityIndex;
   private TenantDataProvider tenantDataProvider;
   private TenantDataProvider standaloneDataProvider;
 
   @BeforeMethod
   public void setUp() {
     when(subject.getToken()).thenReturn("token");
-    tenantDataProvider = new TenantDataProvider(cacheLoader, NAMESPACE, false);
-    standaloneDataProvider = new TenantDataProvider(cacheLoader, NAMESPACE, true);
+    capacityIndex =
+        new ClusterCapacityIndex(30, 300, ticker, MoreExecutors.newDirectExecutorService());
+    tenantDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            false,
+            false,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex);
+    standaloneDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            true,
+            false,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex);
   }
 
   @Test
@@ -48,7 +102,8 @@ public class TenantDataProviderTest {
     // Given
     UserCheTenantData expectedTenantData =
         new UserCheTenantData("namespace", "clusterUrl", "routePrefix", false);
-    when(cacheLoader.load(any())).thenReturn(expectedTenantData);
+    when(cacheLoader.load(any()))
+        .thenReturn(new UserTenantNamespaces(ImmutableMap.of(NAMESPACE_TYPE, expectedTenantData)));
 
     // When
     UserCheTenantData actualTenantData =
@@ -63,6 +118,337 @@ public class TenantDataProviderTest {
         expectedTenantData.isClusterCapacityExhausted());
   }
 
+  @Test
+  public void shouldLoadTenantDataOnceForAllNamespaceTypes() throws Exception {
+    // Given
+    UserCheTenantData cheTenantData =
+        new UserCheTenantData("namespace-che", "clusterUrl", "routePrefix", false);
+    UserCheTenantData userTenantData =
+        new UserCheTenantData("namespace", "clusterUrl", "routePrefix", false);
+    when(cacheLoader.load(any()))
+        .thenReturn(
+            new UserTenantNamespaces(
+                ImmutableMap.of(NAMESPACE_TYPE, cheTenantData, "user", userTenantData)));
+
+    // When
+    UserCheTenantData actualCheData = tenantDataProvider.getUserCheTenantData(subject, "che");
+    UserCheTenantData actualUserData = tenantDataProvider.getUserCheTenantData(subject, "user");
+
+    // Then
+    assertEquals(actualCheData.getNamespace(), "namespace-che");
+    assertEquals(actualUserData.getNamespace(), "namespace");
+    verify(cacheLoader, times(1)).load(any());
+  }
+
+  @Test
+  public void shouldPublishCacheMetrics() throws Exception {
+    // Given
+    MeterRegistry registry = new SimpleMeterRegistry();
+    tenantDataProvider.bindTo(registry);
+    when(cacheLoader.load(any())).thenReturn(tenantNamespaces("namespace"));
+
+    // When
+    tenantDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    tenantDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(
+        registry
+            .get("cache.gets")
+            .tags("cache", "fabric8_tenant_data", "result", "hit")
+            .functionCounter()
+            .count(),
+        1.0);
+    assertEquals(
+        registry
+            .get("cache.gets")
+            .tags("cache", "fabric8_tenant_data", "result", "miss")
+            .functionCounter()
+            .count(),
+        1.0);
+    assertEquals(
+        registry.get("cache.size").tags("cache", "fabric8_tenant_data").gauge().value(), 1.0);
+    assertEquals(
+        registry.get("cache.load.latency").tags("cache", "fabric8_tenant_data").timer().count(), 1);
+  }
+
+  @Test
+  public void shouldKeepTenantDataCachedAcrossTokenRefreshWhenKeyedByUserId() throws Exception {
+    // Given
+    TenantDataProvider userIdDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            false,
+            true,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex);
+    UserCheTenantData tenantData =
+        new UserCheTenantData("namespace", "clusterUrl", "routePrefix", false);
+    when(cacheLoader.load(any()))
+        .thenReturn(new UserTenantNamespaces(ImmutableMap.of(NAMESPACE_TYPE, tenantData)));
+    when(subject.getUserId()).thenReturn(USER_ID);
+    when(jwtParser.parseClaimsJws(anyString())).thenReturn(jws);
+    when(jws.getBody()).thenReturn(claims);
+    when(claims.getSubject()).thenReturn(USER_ID);
+
+    // When
+    userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    when(subject.getToken()).thenReturn("refreshed-token");
+    UserCheTenantData actualTenantData =
+        userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(actualTenantData.getNamespace(), "namespace");
+    verify(cacheLoader, times(1)).load(any());
+    verify(jwtParser).parseClaimsJws("token");
+    verify(jwtParser).parseClaimsJws("refreshed-token");
+  }
+
+  @Test
+  public void shouldServeSnapshotTenantDataAndRevalidateThem() throws Exception {
+    // Given
+    when(snapshot.isEnabled()).thenReturn(true);
+    when(snapshot.read()).thenReturn(ImmutableMap.of(USER_ID, tenantNamespaces("warm")));
+    mockUserIdToken();
+    when(cacheLoader.load(any())).thenReturn(tenantNamespaces("fresh"));
+    TenantDataProvider warmDataProvider = createWarmStartDataProvider();
+
+    // When
+    UserCheTenantData warmData = warmDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    UserCheTenantData freshData = warmDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(warmData.getNamespace(), "warm");
+    assertEquals(freshData.getNamespace(), "fresh");
+    verify(cacheLoader, times(1)).load(any());
+    verify(snapshot).start(any());
+  }
+
+  @Test
+  public void shouldKeepServingSnapshotTenantDataWhenRevalidationFails() throws Exception {
+    // Given
+    when(snapshot.isEnabled()).thenReturn(true);
+    when(snapshot.read()).thenReturn(ImmutableMap.of(USER_ID, tenantNamespaces("warm")));
+    mockUserIdToken();
+    when(cacheLoader.load(any())).thenThrow(new InfrastructureException("unavailable"));
+    TenantDataProvider warmDataProvider = createWarmStartDataProvider();
+
+    // When
+    warmDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    UserCheTenantData tenantData = warmDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(tenantData.getNamespace(), "warm");
+    verify(cacheLoader, times(1)).load(any());
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = ".*token of user 'userId' is not valid.*")
+  public void shouldThrowInfrastructureExceptionWhenKeyedByUserIdAndTokenIsInvalid()
+      throws Exception {
+    // Given
+    TenantDataProvider userIdDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            false,
+            true,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex);
+    when(subject.getUserId()).thenReturn(USER_ID);
+    when(jwtParser.parseClaimsJws(anyString())).thenThrow(new JwtException("expired"));
+
+    // When
+    userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+  }
+
+  @Test(
+      expectedExceptions = InfrastructureException.class,
+      expectedExceptionsMessageRegExp = ".*token was not issued to user 'userId'.*")
+  public void shouldThrowInfrastructureExceptionWhenKeyedByUserIdAndTokenBelongsToAnotherUser()
+      throws Exception {
+    // Given
+    TenantDataProvider userIdDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            false,
+            true,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex);
+    when(subject.getUserId()).thenReturn(USER_ID);
+    when(jwtParser.parseClaimsJws(anyString())).thenReturn(jws);
+    when(jws.getBody()).thenReturn(claims);
+    when(claims.getSubject()).thenReturn("anotherUserId");
+
+    // When
+    userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+  }
+
+  @Test
+  public void shouldRefreshTenantDataInBackgroundAfterRefreshDelay() throws Exception {
+    // Given
+    TenantDataProvider refreshingDataProvider = createRefreshingDataProvider();
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace"))
+        .thenReturn(tenantNamespaces("refreshed-namespace"));
+    refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // When
+    ticker.advance(6, TimeUnit.MINUTES);
+    UserCheTenantData actualTenantData =
+        refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(actualTenantData.getNamespace(), "refreshed-namespace");
+    verify(cacheLoader, times(2)).load(any());
+  }
+
+  @Test
+  public void shouldServeStaleTenantDataWhenRefreshFails() throws Exception {
+    // Given
+    TenantDataProvider refreshingDataProvider = createRefreshingDataProvider();
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace"))
+        .thenThrow(new InfrastructureException("test-failure"));
+    refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // When
+    ticker.advance(6, TimeUnit.MINUTES);
+    UserCheTenantData actualTenantData =
+        refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertEquals(actualTenantData.getNamespace(), "namespace");
+    verify(cacheLoader, times(2)).load(any());
+  }
+
+  @Test(expectedExceptions = InfrastructureException.class)
+  public void shouldStopServingStaleTenantDataWhenItExpires() throws Exception {
+    // Given
+    TenantDataProvider refreshingDataProvider = createRefreshingDataProvider();
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace"))
+        .thenThrow(new InfrastructureException("test-failure"));
+    refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // When
+    ticker.advance(11, TimeUnit.MINUTES);
+    refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+  }
+
+  @Test
+  public void shouldRefreshClusterCapacityThroughTimedLoader() throws Exception {
+    // Given
+    TenantDataProvider refreshingDataProvider = createRefreshingDataProvider();
+    MeterRegistry registry = new SimpleMeterRegistry();
+    refreshingDataProvider.bindTo(registry);
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace", true))
+        .thenReturn(tenantNamespaces("namespace", false));
+    UserCheTenantData tenantData =
+        refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    ticker.advance(31, TimeUnit.SECONDS);
+
+    // When
+    boolean staleCapacity = capacityIndex.isCapacityExhausted(tenantData, "token");
+    boolean refreshedCapacity = capacityIndex.isCapacityExhausted(tenantData, "token");
+
+    // Then
+    assertTrue(staleCapacity);
+    assertFalse(refreshedCapacity);
+    assertEquals(
+        registry.get("cache.load.latency").tags("cache", "fabric8_tenant_data").timer().count(), 2);
+  }
+
+  @Test
+  public void shouldCacheTenantDataReloadedByUserIdToRefreshClusterCapacity() throws Exception {
+    // Given
+    TenantDataProvider userIdDataProvider =
+        new TenantDataProvider(
+            cacheLoader,
+            NAMESPACE,
+            false,
+            true,
+            1000,
+            10,
+            0,
+            5,
+            30,
+            jwtParser,
+            snapshot,
+            capacityIndex,
+            ticker,
+            MoreExecutors.newDirectExecutorService());
+    mockUserIdToken();
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace", true))
+        .thenReturn(tenantNamespaces("namespace", false));
+    UserCheTenantData tenantData = userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    ticker.advance(31, TimeUnit.SECONDS);
+
+    // When
+    capacityIndex.isCapacityExhausted(tenantData, "refreshed-token");
+    UserCheTenantData cachedTenantData =
+        userIdDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+
+    // Then
+    assertFalse(cachedTenantData.isClusterCapacityExhausted());
+    verify(cacheLoader, times(2)).load(any());
+    verify(cacheLoader)
+        .load(
+            argThat(
+                key ->
+                    USER_ID.equals(key.getIdentity())
+                        && "refreshed-token".equals(key.getKeycloakToken())));
+  }
+
+  @Test
+  public void shouldNotRefreshClusterCapacityWithTokenWhoseRetrievalJustFailed() throws Exception {
+    // Given
+    TenantDataProvider refreshingDataProvider = createRefreshingDataProvider();
+    when(cacheLoader.load(any()))
+        .thenReturn(tenantNamespaces("namespace", true))
+        .thenThrow(new InfrastructureException("test-failure"));
+    UserCheTenantData tenantData =
+        refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+    ticker.advance(31, TimeUnit.SECONDS);
+    when(subject.getToken()).thenReturn("other-token");
+    try {
+      refreshingDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
+      fail("Tenant data retrieval should fail");
+    } catch (InfrastructureException e) {
+      // expected
+    }
+
+    // When
+    boolean exhausted = capacityIndex.isCapacityExhausted(tenantData, "other-token");
+
+    // Then
+    assertTrue(exhausted);
+    verify(cacheLoader, times(2)).load(any());
+  }
+
   @Test
   public void standaloneShouldReturnDefaultDataWithCheNamespaceType() throws Exception {
     // When
@@ -116,4 +502,73 @@ public class TenantDataProviderTest {
     // When
     tenantDataProvider.getUserCheTenantData(subject, NAMESPACE_TYPE);
   }
+
+  private TenantDataProvider createRefreshingDataProvider() {
+    return new TenantDataProvider(
+        cacheLoader,
+        NAMESPACE,
+        false,
+        false,
+        1000,
+        10,
+        5,
+        5,
+        30,
+        jwtParser,
+        snapshot,
+        capacityIndex,
+        ticker,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  private TenantDataProvider createWarmStartDataProvider() {
+    return new TenantDataProvider(
+        cacheLoader,
+        NAMESPACE,
+        false,
+        true,
+        1000,
+        10,
+        0,
+        5,
+        30,
+        jwtParser,
+        snapshot,
+        capacityIndex,
+        ticker,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  private void mockUserIdToken() {
+    when(subject.getUserId()).thenReturn(USER_ID);
+    when(jwtParser.parseClaimsJws(anyString())).thenReturn(jws);
+    when(jws.getBody()).thenReturn(claims);
+    when(claims.getSubject()).thenReturn(USER_ID);
+  }
+
+  private static UserTenantNamespaces tenantNamespaces(String namespace) {
+    return tenantNamespaces(namespace, false);
+  }
+
+  private static UserTenantNamespaces tenantNamespaces(
+      String namespace, boolean clusterCapacityExhausted) {
+    return new UserTenantNamespaces(
+        ImmutableMap.of(
+            NAMESPACE_TYPE,
+            new UserCheTenantData(
+                namespace, "clusterUrl", "routePrefix", clusterCapacityExhausted)));
+  }
+
+  private static class TestTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    void advance(long duration, TimeUnit unit) {
+      nanos.addAndGet(unit.toNanos(duration));
+    }
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TenantDataSnapshotTest {
+
+  private Path directory;
+  private Path file;
+  private TenantDataSnapshot snapshot;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("tenant-data-snapshot");
+    file = directory.resolve("snapshot.bin");
+    snapshot = new TenantDataSnapshot(file.toString(), 5, 60);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    IoUtil.deleteRecursive(directory.toFile());
+  }
+
+  @Test
+  public void shouldReadWrittenTenantData() throws Exception {
+    // Given
+    snapshot.write(
+        ImmutableMap.of(
+            "user1",
+            new UserTenantNamespaces(
+                ImmutableMap.of(
+                    "che", new UserCheTenantData("john-che", "https://api.cluster/", "app", true),
+                    "user", new UserCheTenantData("john", null, "app", false))),
+            "user2",
+            new UserTenantNamespaces(ImmutableMap.of())));
+
+    // When
+    Map<String, UserTenantNamespaces> namespacesByUserId = snapshot.read();
+
+    // Then
+    assertEquals(namespacesByUserId.size(), 2);
+    assertTrue(namespacesByUserId.get("user2").getNamespacesByType().isEmpty());
+    Map<String, UserCheTenantData> user1Namespaces =
+        namespacesByUserId.get("user1").getNamespacesByType();
+    assertEquals(user1Namespaces.get("che").toString(), "{john-che,https://api.cluster/,app,true}");
+    assertEquals(user1Namespaces.get("user").toString(), "{john,null,app,false}");
+  }
+
+  @Test
+  public void shouldIgnoreTooOldSnapshot() throws Exception {
+    // Given
+    snapshot.write(
+        ImmutableMap.of("user1", new UserTenantNamespaces(ImmutableMap.of())),
+        System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(61));
+
+    // When
+    Map<String, UserTenantNamespaces> namespacesByUserId = snapshot.read();
+
+    // Then
+    assertTrue(namespacesByUserId.isEmpty());
+  }
+
+  @Test
+  public void shouldIgnoreTruncatedSnapshot() throws Exception {
+    // Given
+    snapshot.write(ImmutableMap.of("user1", new UserTenantNamespaces(ImmutableMap.of())));
+    byte[] content = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(content, content.length - 3));
+
+    // When
+    Map<String, UserTenantNamespaces> namespacesByUserId = snapshot.read();
+
+    // Then
+    assertTrue(namespacesByUserId.isEmpty());
+  }
+
+  @Test
+  public void shouldNotLeaveTemporaryFileWhenWriteFails() throws Exception {
+    // Given
+    Files.createDirectories(file.resolve("entry"));
+
+    // When
+    try {
+      snapshot.write(ImmutableMap.of("user1", new UserTenantNamespaces(ImmutableMap.of())));
+      fail("The snapshot should not replace a non empty directory");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Then
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(files.collect(Collectors.toList()), Collections.singletonList(file));
+    }
+  }
+
+  @Test
+  public void shouldReturnNoTenantDataWhenThereIsNoSnapshot() {
+    assertTrue(snapshot.read().isEmpty());
+  }
+
+  @Test
+  public void shouldBeDisabledWhenNoFileIsConfigured() throws Exception {
+    // Given
+    TenantDataSnapshot disabledSnapshot = new TenantDataSnapshot(null, 5, 60);
+
+    // When
+    disabledSnapshot.write(ImmutableMap.of("user1", new UserTenantNamespaces(ImmutableMap.of())));
+
+    // Then
+    assertFalse(disabledSnapshot.isEnabled());
+    assertTrue(disabledSnapshot.read().isEmpty());
+  }
+}
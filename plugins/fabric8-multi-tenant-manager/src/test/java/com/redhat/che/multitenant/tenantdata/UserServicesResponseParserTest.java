@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.tenantdata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.gson.JsonParseException;
+import java.io.StringReader;
+import java.util.Map;
+import org.testng.annotations.Test;
+
+public class UserServicesResponseParserTest {
+
+  @Test
+  public void shouldSkipFieldsThatAreNotNeeded() throws Exception {
+    // Given
+    String response =
+        "{\"data\":{\"id\":\"userid\",\"links\":{\"self\":\"self\"},\"attributes\":{"
+            + "\"created-at\":\"createdAt\",\"namespaces\":[{\"cluster-console-url\":\"console\","
+            + "\"cluster-metrics-url\":{\"nested\":[1,2]},\"name\":\"john-che\",\"type\":\"che\","
+            + "\"cluster-url\":\"url\",\"cluster-app-domain\":\"domain\","
+            + "\"cluster-capacity-exhausted\":true,\"state\":\"created\"}]}},\"meta\":{}}";
+
+    // When
+    Map<String, UserCheTenantData> namespaces =
+        UserServicesResponseParser.parse(new StringReader(response)).getNamespacesByType();
+
+    // Then
+    assertEquals(namespaces.size(), 1);
+    UserCheTenantData data = namespaces.get("che");
+    assertEquals(data.getNamespace(), "john-che");
+    assertEquals(data.getClusterUrl(), "url");
+    assertEquals(data.getRouteBaseSuffix(), "domain");
+    assertTrue(data.isClusterCapacityExhausted());
+  }
+
+  @Test
+  public void shouldKeepFirstNamespaceOfEachTypeAndIgnoreNamespacesWithoutType() throws Exception {
+    // Given
+    String response =
+        "{\"data\":{\"attributes\":{\"namespaces\":["
+            + "{\"name\":\"no-type\"},"
+            + "{\"name\":\"first\",\"type\":\"user\",\"cluster-url\":null,"
+            + "\"cluster-capacity-exhausted\":null},"
+            + "{\"name\":\"second\",\"type\":\"user\"}]}}}";
+
+    // When
+    Map<String, UserCheTenantData> namespaces =
+        UserServicesResponseParser.parse(new StringReader(response)).getNamespacesByType();
+
+    // Then
+    assertEquals(namespaces.size(), 1);
+    UserCheTenantData data = namespaces.get("user");
+    assertEquals(data.getNamespace(), "first");
+    assertNull(data.getClusterUrl());
+    assertFalse(data.isClusterCapacityExhausted());
+  }
+
+  @Test(expectedExceptions = JsonParseException.class)
+  public void shouldThrowJsonParseExceptionWhenNamespacesAreMissing() throws Exception {
+    UserServicesResponseParser.parse(new StringReader("{\"data\":{\"attributes\":null}}"));
+  }
+
+  @Test(expectedExceptions = JsonParseException.class)
+  public void shouldThrowJsonParseExceptionWhenNamespacesHaveUnexpectedType() throws Exception {
+    UserServicesResponseParser.parse(
+        new StringReader("{\"data\":{\"attributes\":{\"namespaces\":{}}}}"));
+  }
+
+  @Test(expectedExceptions = JsonParseException.class)
+  public void shouldThrowJsonParseExceptionWhenResponseIsMalformed() throws Exception {
+    UserServicesResponseParser.parse(new StringReader("{\"data\":{\"attributes\":"));
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016-2018 Red Hat, Inc.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.redhat.che.multitenant.toggle;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import no.finn.unleash.ActivationStrategy;
+import no.finn.unleash.FeatureToggle;
+import no.finn.unleash.UnleashContext;
+import no.finn.unleash.UnleashException;
+import no.finn.unleash.repository.FeatureToggleRepository;
+import no.finn.unleash.repository.ToggleBackupHandlerFile;
+import no.finn.unleash.strategy.GradualRolloutUserIdStrategy;
+import no.finn.unleash.strategy.StrategyUtils;
+import no.finn.unleash.util.UnleashConfig;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CheServiceAccountTokenToggleTest {
+
+  private static final String FEATURE_NAME = "che.serviceaccount.lockdown";
+
+  private final AtomicReference<FeatureToggle> featureToggle = new AtomicReference<>();
+  private CheServiceAccountTokenToggle toggle;
+  private Path backupFile;
+
+  @BeforeMethod
+  public void setUp() {
+    featureToggle.set(null);
+    toggle = new CheServiceAccountTokenToggle(name -> featureToggle.get());
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (backupFile != null) {
+      Files.deleteIfExists(backupFile);
+      backupFile = null;
+    }
+  }
+
+  @Test
+  public void shouldBeDisabledWhenFeatureIsUnknown() {
+    assertFalse(toggle.useCheServiceAccountToken("userId"));
+  }
+
+  @Test
+  public void shouldBeDisabledWhenFeatureIsDisabled() {
+    // Given
+    featureToggle.set(toggle(false, strategy(ToggleSnapshot.DEFAULT_STRATEGY, emptyMap())));
+
+    // Then
+    assertFalse(toggle.useCheServiceAccountToken("userId"));
+  }
+
+  @Test
+  public void shouldBeEnabledForAllUsersWithDefaultStrategy() {
+    // Given
+    featureToggle.set(toggle(true, strategy(ToggleSnapshot.DEFAULT_STRATEGY, emptyMap())));
+
+    // Then
+    assertTrue(toggle.useCheServiceAccountToken("userId"));
+    assertTrue(toggle.useCheServiceAccountToken(null));
+  }
+
+  @Test
+  public void shouldBeEnabledForListedUsersOnly() {
+    // Given
+    featureToggle.set(
+        toggle(
+            true,
+            strategy(
+                ToggleSnapshot.USER_WITH_ID_STRATEGY,
+                ImmutableMap.of(ToggleSnapshot.USER_IDS_PARAM, "userId, otherId"))));
+
+    // Then
+    assertTrue(toggle.useCheServiceAccountToken("userId"));
+    assertTrue(toggle.useCheServiceAccountToken("otherId"));
+    assertFalse(toggle.useCheServiceAccountToken("unlistedId"));
+    assertFalse(toggle.useCheServiceAccountToken(null));
+  }
+
+  @Test
+  public void shouldBeDisabledWithUnsupportedStrategy() {
+    // Given
+    featureToggle.set(
+        toggle(true, strategy("remoteAddress", ImmutableMap.of("IPs", "127.0.0.1, 10.0.0.1"))));
+
+    // Then
+    assertFalse(toggle.useCheServiceAccountToken("userId"));
+  }
+
+  @Test
+  public void shouldBeEnabledForAllUsersOnListedHostsWithApplicationHostnameStrategy() {
+    // Given
+    FeatureToggle hostnameToggle =
+        toggle(
+            true,
+            strategy(
+                ToggleSnapshot.APPLICATION_HOSTNAME_STRATEGY,
+                ImmutableMap.of(ToggleSnapshot.HOST_NAMES_PARAM, "other-host, Che-Host")));
+
+    // When
+    ToggleSnapshot listedHost = ToggleSnapshot.of(hostnameToggle, "che-host");
+    ToggleSnapshot unlistedHost = ToggleSnapshot.of(hostnameToggle, "unlisted-host");
+
+    // Then
+    assertTrue(listedHost.isEnabled("userId"));
+    assertTrue(listedHost.isEnabled(null));
+    assertFalse(unlistedHost.isEnabled("userId"));
+  }
+
+  @Test
+  public void shouldEnableRandomEvaluationsWithGradualRolloutRandomStrategy() {
+    for (int percentage : Arrays.asList(0, 50, 100)) {
+      // Given
+      featureToggle.set(
+          toggle(
+              true,
+              strategy(
+                  ToggleSnapshot.GRADUAL_ROLLOUT_RANDOM_STRATEGY,
+                  ImmutableMap.of(ToggleSnapshot.PERCENTAGE_PARAM, String.valueOf(percentage)))));
+
+      // When
+      int enabled = 0;
+      for (int i = 0; i < 10000; i++) {
+        if (toggle.useCheServiceAccountToken(i % 2 == 0 ? "userId" : null)) {
+          enabled++;
+        }
+      }
+
+      // Then
+      assertEquals(enabled / 100.0, percentage, 5, "percentage " + percentage);
+    }
+  }
+
+  @Test
+  public void shouldEnableSameUsersAsUnleashForGradualRollout() {
+    GradualRolloutUserIdStrategy unleashStrategy = new GradualRolloutUserIdStrategy();
+    for (String percentage : Arrays.asList("0", "1", "33", "50", "99", "100")) {
+      // Given
+      Map<String, String> parameters =
+          ImmutableMap.of(
+              ToggleSnapshot.PERCENTAGE_PARAM, percentage, ToggleSnapshot.GROUP_ID_PARAM, "che");
+      featureToggle.set(
+          toggle(true, strategy(ToggleSnapshot.GRADUAL_ROLLOUT_USER_ID_STRATEGY, parameters)));
+
+      for (int i = 0; i < 1000; i++) {
+        String userId = UUID.randomUUID().toString();
+
+        // Then
+        assertEquals(
+            toggle.useCheServiceAccountToken(userId),
+            unleashStrategy.isEnabled(parameters, UnleashContext.builder().userId(userId).build()),
+            "percentage " + percentage + ", user " + userId);
+      }
+    }
+  }
+
+  @Test
+  public void shouldNormalizeHashesAsUnleash() {
+    for (String groupId : Arrays.asList("", "che", "é")) {
+      for (String userId :
+          Arrays.asList("u", "us", "use", "user", "userId", "ùser", "0" + groupId)) {
+        assertEquals(
+            ToggleSnapshot.getNormalizedNumber(userId, groupId),
+            StrategyUtils.getNormalizedNumber(userId, groupId),
+            "group '" + groupId + "', user '" + userId + "'");
+      }
+    }
+  }
+
+  @Test
+  public void shouldFollowChangesOfFeatureToggle() {
+    // Given
+    featureToggle.set(toggle(true, strategy(ToggleSnapshot.DEFAULT_STRATEGY, emptyMap())));
+    assertTrue(toggle.useCheServiceAccountToken("userId"));
+
+    // When
+    featureToggle.set(toggle(false, strategy(ToggleSnapshot.DEFAULT_STRATEGY, emptyMap())));
+
+    // Then
+    assertFalse(toggle.useCheServiceAccountToken("userId"));
+  }
+
+  @Test
+  public void shouldUseBackupFileWhenTogglesServiceCannotBeReached() throws Exception {
+    // Given
+    backupFile = Files.createTempFile("toggles", ".json");
+    Files.write(
+        backupFile,
+        ("{\"version\": 1, \"features\": [{\"name\": \""
+                + FEATURE_NAME
+                + "\", \"enabled\": true, \"strategies\": [{\"name\": \"userWithId\","
+                + " \"parameters\": {\"userIds\": \"userId\"}}]}]}")
+            .getBytes(StandardCharsets.UTF_8));
+    UnleashConfig config =
+        UnleashConfig.builder()
+            .appName("rh-che")
+            .unleashAPI("http://f8toggles/api")
+            .backupFile(backupFile.toString())
+            .build();
+
+    // When
+    toggle =
+        new CheServiceAccountTokenToggle(
+            new FeatureToggleRepository(
+                config,
+                (task, initialDelay, period) -> {
+                  task.run();
+                  return null;
+                },
+                () -> {
+                  throw new UnleashException("unreachable", null);
+                },
+                new ToggleBackupHandlerFile(config)));
+
+    // Then
+    assertTrue(toggle.useCheServiceAccountToken("userId"));
+    assertFalse(toggle.useCheServiceAccountToken("otherId"));
+  }
+
+  private static FeatureToggle toggle(boolean enabled, ActivationStrategy strategy) {
+    return new FeatureToggle(FEATURE_NAME, enabled, singletonList(strategy));
+  }
+
+  private static ActivationStrategy strategy(String name, Map<String, String> parameters) {
+    return new ActivationStrategy(name, parameters);
+  }
+}